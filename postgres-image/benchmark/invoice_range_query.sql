@@ -0,0 +1,28 @@
+-- Benchmark of the invoice time-range query on 5M rows.
+-- Run against an empty database migrated by the application:
+--   psql -U <user> -d <database> -f invoice_range_query.sql
+-- Both plans must show an "Index Only Scan using invoice_creation_date_id_idx" with "Heap Fetches: 0".
+
+INSERT INTO public.invoice (id, creation_date, pdf_url, status)
+SELECT id, creation_date, to_char(creation_date, 'YYYY/MM') || '/' || id || '.pdf', 'COMPLETED'
+FROM (SELECT gen_random_uuid() AS id, date '2020-01-01' + (random() * 1460)::int AS creation_date
+      FROM generate_series(1, 5000000)) AS rows;
+
+VACUUM ANALYZE public.invoice;
+
+-- First page of a month
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT id, creation_date, pdf_url, status
+FROM public.invoice
+WHERE creation_date BETWEEN date '2022-03-01' AND date '2022-03-31'
+ORDER BY creation_date, id
+LIMIT 100;
+
+-- Following page, after a cursor
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT id, creation_date, pdf_url, status
+FROM public.invoice
+WHERE creation_date BETWEEN date '2022-03-01' AND date '2022-03-31'
+  AND (creation_date > date '2022-03-15' OR (creation_date = date '2022-03-15' AND id > '80000000-0000-0000-0000-000000000000'))
+ORDER BY creation_date, id
+LIMIT 100;
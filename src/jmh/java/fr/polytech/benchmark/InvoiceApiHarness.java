@@ -0,0 +1,143 @@
+package fr.polytech.benchmark;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import fr.polytech.App;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The whole application started for the benchmarks on a random port, with an in-memory H2 database in place of
+ * Postgres and a StubS3Server in place of Minio. The stub also serves the JWK set of the access tokens signed by
+ * {@link #signToken(String...)}.
+ */
+public class InvoiceApiHarness implements AutoCloseable {
+
+    private static final String ISSUER = "http://localhost/realms/benchmark";
+
+    private final StubS3Server storage;
+
+    private final RSAKey signingKey;
+
+    private final ConfigurableApplicationContext context;
+
+    /**
+     * Start the application
+     *
+     * @param storageLatencyMs Latency of every request to the stub storage
+     * @param properties       Properties of the benchmark, overriding application.properties
+     * @throws IOException   If the stub storage cannot be started
+     * @throws JOSEException If the signing key cannot be generated
+     */
+    public InvoiceApiHarness(long storageLatencyMs, Map<String, String> properties) throws IOException, JOSEException {
+        storage = new StubS3Server(storageLatencyMs);
+        signingKey = new RSAKeyGenerator(2048).keyID("benchmark").generate();
+        storage.serve("/certs", this::serveKeys);
+
+        Map<String, String> arguments = new LinkedHashMap<>();
+        arguments.put("server.port", "0");
+        arguments.put("management.server.port", "0");
+        arguments.put("CONFIG_SERVER_URI", "http://localhost:8888");
+        arguments.put("eureka.client.enabled", "false");
+        arguments.put("JWT_ISSUER_URI", ISSUER);
+        arguments.put("JWT_JWK_SET_URI", storage.getUrl() + "/certs");
+        arguments.put("MINIO_ENDPOINT", storage.getUrl());
+        arguments.put("MINIO_ACCESS_KEY", "benchmark");
+        arguments.put("MINIO_SECRET_KEY", "benchmark");
+        arguments.put("spring.datasource.url", "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        arguments.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        arguments.put("spring.datasource.username", "sa");
+        arguments.put("spring.flyway.enabled", "false");
+        arguments.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+        arguments.put("logging.level.root", "WARN");
+        arguments.putAll(properties);
+
+        context = new SpringApplicationBuilder(App.class)
+                .run(arguments.entrySet().stream().map(entry -> "--" + entry.getKey() + "=" + entry.getValue()).toArray(String[]::new));
+    }
+
+    /**
+     * @param type Type of the bean
+     * @param <T>  Type of the bean
+     * @return Bean of the application
+     */
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * @return URL of the API
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + ((WebServerApplicationContext) context).getWebServer().getPort() + "/api/v1/invoice";
+    }
+
+    /**
+     * @return Stub storage
+     */
+    public StubS3Server getStorage() {
+        return storage;
+    }
+
+    /**
+     * Sign an access token valid for an hour
+     *
+     * @param roles Client roles of the token
+     * @return Serialized token
+     * @throws JOSEException If the token cannot be signed
+     */
+    public String signToken(String... roles) throws JOSEException {
+        Instant now = Instant.now();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject(UUID.randomUUID().toString())
+                .claim("preferred_username", "benchmark")
+                .claim("resource_access", Map.of(System.getenv().getOrDefault("RESOURCE_ID", "seasonsforce"), Map.of("roles", List.of(roles))))
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plusSeconds(3600)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(signingKey));
+        return jwt.serialize();
+    }
+
+    /**
+     * Answer a fetch of the JWK set with the signing key
+     *
+     * @param exchange Request to the stub
+     * @throws IOException If the response cannot be written
+     */
+    private void serveKeys(HttpExchange exchange) throws IOException {
+        byte[] body = new JWKSet(signingKey.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        storage.close();
+    }
+}
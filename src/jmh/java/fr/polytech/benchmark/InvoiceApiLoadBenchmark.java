@@ -0,0 +1,130 @@
+package fr.polytech.benchmark;
+
+import com.nimbusds.jose.JOSEException;
+import fr.polytech.model.InvoiceBatchResultDTO;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.service.InvoiceBatchService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP load on the whole application, served by the Tomcat platform thread pool or by virtual threads, on H2 and a
+ * stub storage answering every request after a fixed latency. Every benchmark thread is a client sending its requests
+ * one after the other, run it with -Djmh.threads=64 and 256: the throughput is the maximum number of requests per
+ * millisecond at this concurrency, the sample time gives the p99 latency. The rate limits are disabled.
+ * The downloads block on Minio through OkHttp, the listings on JDBC. The virtual threads pinned to their carrier meanwhile
+ * are recorded with JFR and reported at the end of each run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class InvoiceApiLoadBenchmark {
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param({"20"})
+    private long storageLatencyMs;
+
+    private InvoiceApiHarness harness;
+
+    private PinnedThreadRecorder pinnedThreadRecorder;
+
+    private HttpClient client;
+
+    private HttpRequest downloadRequest;
+
+    private HttpRequest listRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JOSEException {
+        harness = new InvoiceApiHarness(storageLatencyMs, Map.of(
+                "invoice.threads.virtual", Boolean.toString(virtualThreads),
+                "invoice.rate-limit.enabled", "false"));
+
+        UUID invoiceId = createInvoices(100);
+        String token = "Bearer " + harness.signToken("client_admin", "client_recruiter");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        downloadRequest = HttpRequest.newBuilder(URI.create(harness.getUrl() + "/" + invoiceId + "/pdf"))
+                .header("Authorization", token)
+                .build();
+        listRequest = HttpRequest.newBuilder(URI.create(harness.getUrl() + "/?limit=20"))
+                .header("Authorization", token)
+                .header("Accept", "application/json")
+                .build();
+
+        pinnedThreadRecorder = new PinnedThreadRecorder();
+    }
+
+    /**
+     * Create the invoices served by the benchmark
+     *
+     * @param count Number of invoices
+     * @return ID of the first invoice
+     */
+    private UUID createInvoices(int count) {
+        List<InvoiceDataDTO> invoices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            InvoiceDataDTO invoiceData = new InvoiceDataDTO();
+            invoiceData.setCreationDate(Date.valueOf("2023-12-01"));
+            invoiceData.setName("Jean");
+            invoiceData.setSurname("Dupont " + i);
+            invoiceData.setAddress("1 rue de la Paix, 75002 Paris");
+            invoiceData.setPlan("premium");
+            invoiceData.setPrice(99.99);
+            invoices.add(invoiceData);
+        }
+
+        List<InvoiceBatchResultDTO> results = harness.getBean(InvoiceBatchService.class).createInvoices(invoices);
+        return results.get(0).getInvoice().getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pinnedThreadRecorder.stop();
+        System.out.println();
+        System.out.print(pinnedThreadRecorder.report());
+        pinnedThreadRecorder.close();
+        harness.close();
+    }
+
+    @Benchmark
+    public int downloadPdf() throws IOException, InterruptedException {
+        return send(downloadRequest);
+    }
+
+    @Benchmark
+    public int listInvoices() throws IOException, InterruptedException {
+        return send(listRequest);
+    }
+
+    /**
+     * Send a request and read its whole response
+     *
+     * @param request Request
+     * @return Size of the response
+     * @throws IOException          If the request fails
+     * @throws InterruptedException If interrupted while waiting for the response
+     */
+    private int send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Request answered with " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -0,0 +1,84 @@
+package fr.polytech.benchmark;
+
+import com.nimbusds.jose.JOSEException;
+import fr.polytech.model.InvoiceBatchResultDTO;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.repository.InvoiceOutboxRepository;
+import fr.polytech.repository.InvoiceRepository;
+import fr.polytech.service.InvoiceBatchService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole creation of a batch of invoices: batched inserts, rendering, uploads and completion, on H2 and a stub storage
+ * answering every upload after a fixed latency. Divide the batch size by the time of a batch to get the invoices per
+ * second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InvoiceBatchBenchmark {
+
+    @Param({"1000", "10000"})
+    private int batchSize;
+
+    @Param({"5"})
+    private long storageLatencyMs;
+
+    private InvoiceApiHarness harness;
+
+    private InvoiceBatchService invoiceBatchService;
+
+    private List<InvoiceDataDTO> invoices;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JOSEException {
+        // The backlog is only recounted every second, the previous batch must not reject the next one
+        harness = new InvoiceApiHarness(storageLatencyMs, Map.of("invoice.outbox.max-backlog", "1000000"));
+        invoiceBatchService = harness.getBean(InvoiceBatchService.class);
+
+        invoices = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            InvoiceDataDTO invoiceData = new InvoiceDataDTO();
+            invoiceData.setCreationDate(Date.valueOf("2023-12-01"));
+            invoiceData.setName("Jean");
+            invoiceData.setSurname("Dupont " + i);
+            invoiceData.setAddress("1 rue de la Paix, 75002 Paris");
+            invoiceData.setPlan("premium");
+            invoiceData.setPrice(99.99);
+            invoices.add(invoiceData);
+        }
+    }
+
+    /**
+     * Empty the tables, so that every batch starts from the same database
+     */
+    @TearDown(Level.Iteration)
+    public void clear() {
+        harness.getBean(InvoiceOutboxRepository.class).deleteAllInBatch();
+        harness.getBean(InvoiceRepository.class).deleteAllInBatch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        harness.close();
+    }
+
+    @Benchmark
+    public List<InvoiceBatchResultDTO> createInvoices() {
+        List<InvoiceBatchResultDTO> results = invoiceBatchService.createInvoices(invoices);
+        if (results.stream().anyMatch(result -> result.getError() != null)) {
+            throw new IllegalStateException("Invoices of the batch were not created");
+        }
+        return results;
+    }
+}
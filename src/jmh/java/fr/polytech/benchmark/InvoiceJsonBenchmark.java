@@ -0,0 +1,66 @@
+package fr.polytech.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoiceStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON deserialization of the invoice creation requests and serialization of the invoices returned to the clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvoiceJsonBenchmark {
+
+    private ObjectReader invoiceDataReader;
+
+    private ObjectWriter invoiceWriter;
+
+    private byte[] invoiceDataJson;
+
+    private Invoice invoice;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        invoiceDataReader = objectMapper.readerFor(InvoiceDataDTO.class);
+        invoiceWriter = objectMapper.writerFor(Invoice.class);
+
+        InvoiceDataDTO invoiceData = new InvoiceDataDTO();
+        invoiceData.setCreationDate(Date.valueOf("2023-12-01"));
+        invoiceData.setName("Jean");
+        invoiceData.setSurname("Dupont");
+        invoiceData.setAddress("1 rue de la Paix, 75002 Paris");
+        invoiceData.setPlan("premium");
+        invoiceData.setPrice(99.99);
+        invoiceDataJson = objectMapper.writeValueAsBytes(invoiceData);
+
+        invoice = new Invoice();
+        invoice.setId(UUID.randomUUID());
+        invoice.setCreationDate(Date.valueOf("2023-12-01"));
+        invoice.setPdfUrl("2023/12/" + invoice.getId() + ".pdf");
+        invoice.setStatus(InvoiceStatus.COMPLETED);
+    }
+
+    @Benchmark
+    public InvoiceDataDTO readInvoiceData() throws IOException {
+        return invoiceDataReader.readValue(invoiceDataJson);
+    }
+
+    @Benchmark
+    public byte[] writeInvoice() throws IOException {
+        return invoiceWriter.writeValueAsBytes(invoice);
+    }
+}
@@ -0,0 +1,98 @@
+package fr.polytech.benchmark;
+
+import fr.polytech.config.InvoiceTemplateProperties;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.pdf.InvoicePdfRenderer;
+import fr.polytech.pdf.InvoiceTemplateRegistry;
+import fr.polytech.service.PdfBuffer;
+import fr.polytech.service.PdfBufferPool;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of an invoice PDF: the former temp file path, the in-memory path laying out the whole page,
+ * and the in-memory path appending the fields to a template. Run with -prof gc for the bytes allocated per invoice.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvoicePdfBenchmark {
+
+    private AnnotationConfigApplicationContext context;
+
+    private InvoicePdfRenderer renderer;
+
+    private PdfBufferPool bufferPool;
+
+    private UUID id;
+
+    private InvoiceDataDTO invoice;
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(InvoiceTemplateProperties.class, InvoiceTemplateRegistry.class,
+                InvoicePdfRenderer.class, PdfBufferPool.class);
+        renderer = context.getBean(InvoicePdfRenderer.class);
+        bufferPool = context.getBean(PdfBufferPool.class);
+
+        id = UUID.randomUUID();
+        invoice = new InvoiceDataDTO();
+        invoice.setCreationDate(Date.valueOf("2023-12-01"));
+        invoice.setName("Jean");
+        invoice.setSurname("Dupont");
+        invoice.setAddress("1 rue de la Paix, 75002 Paris");
+        invoice.setPlan("premium");
+        invoice.setPrice(99.99);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] renderToTempFile() throws IOException {
+        Path file = Files.createTempFile("invoice-", ".pdf");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                renderer.renderWithoutTemplate(id, invoice, out);
+            }
+            return Files.readAllBytes(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public int renderWithoutTemplate() throws IOException {
+        PdfBuffer buffer = bufferPool.acquire();
+        try {
+            renderer.renderWithoutTemplate(id, invoice, buffer);
+            return buffer.size();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Benchmark
+    public int renderWithTemplate() throws IOException {
+        PdfBuffer buffer = bufferPool.acquire();
+        try {
+            renderer.render(id, invoice, buffer);
+            return buffer.size();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+}
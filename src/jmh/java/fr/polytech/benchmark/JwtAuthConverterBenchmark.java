@@ -0,0 +1,91 @@
+package fr.polytech.benchmark;
+
+import fr.polytech.config.JwtAuthConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a Keycloak token, done on every request, with the authorities extracted every time or cached by token.
+ * The resource is read from the RESOURCE_ID environment variable, set by the jmh profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtAuthConverterBenchmark {
+
+    private AnnotationConfigApplicationContext uncachedContext;
+
+    private AnnotationConfigApplicationContext cachedContext;
+
+    private JwtAuthConverter uncachedConverter;
+
+    private JwtAuthConverter cachedConverter;
+
+    private Jwt jwt;
+
+    @Setup
+    public void setUp() {
+        uncachedContext = createContext(0);
+        uncachedConverter = uncachedContext.getBean(JwtAuthConverter.class);
+        cachedContext = createContext(10000);
+        cachedConverter = cachedContext.getBean(JwtAuthConverter.class);
+
+        Instant now = Instant.now();
+        jwt = Jwt.withTokenValue("header.payload.signature")
+                .header("alg", "RS256")
+                .issuedAt(now)
+                .expiresAt(now.plusSeconds(3600))
+                .claim("jti", "0d7c2b8e-3c3f-4a4e-9c55-5e1a2f6b7d10")
+                .claim("preferred_username", "recruiter")
+                .claim("scope", "openid profile email")
+                .claim("resource_access", Map.of(
+                        System.getenv().getOrDefault("RESOURCE_ID", "seasonsforce"),
+                        Map.of("roles", List.of("client_recruiter", "client_admin"))))
+                .build();
+    }
+
+    /**
+     * Create a context holding a converter
+     *
+     * @param cacheMaxSize Size of the authorities cache, 0 to disable it
+     * @return Started context
+     */
+    private static AnnotationConfigApplicationContext createContext(long cacheMaxSize) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark",
+                Map.of("invoice.security.authorities-cache.max-size", cacheMaxSize)));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.register(JwtAuthConverter.class);
+        context.refresh();
+        return context;
+    }
+
+    @TearDown
+    public void tearDown() {
+        uncachedContext.close();
+        cachedContext.close();
+    }
+
+    @Benchmark
+    public AbstractAuthenticationToken convert() {
+        return uncachedConverter.convert(jwt);
+    }
+
+    @Benchmark
+    public AbstractAuthenticationToken convertCached() {
+        return cachedConverter.convert(jwt);
+    }
+}
@@ -0,0 +1,73 @@
+package fr.polytech.benchmark;
+
+import fr.polytech.config.MinioConfig;
+import fr.polytech.config.MinioProperties;
+import fr.polytech.service.MinioService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.errors.MinioException;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessor;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload throughput of the pooled Minio client against a running server, by default http://localhost:9000.
+ * Every benchmark thread is a parallel client, run it with -Djmh.threads=1, 16, 64 and 256.
+ * The Minio settings are read from the system properties, e.g. -jvmArgsAppend -Dminio.max-requests-per-host=5
+ * compares with the default OkHttp dispatcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MinioUploadBenchmark {
+
+    private static final String BUCKET = "benchmark";
+
+    private AnnotationConfigApplicationContext context;
+
+    private MinioService minioService;
+
+    /**
+     * Content of a typical invoice PDF
+     */
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources()
+                .addLast(new MapPropertySource("benchmark", Map.of("minio.endpoint", "http://localhost:9000")));
+        ConfigurationPropertiesBindingPostProcessor.register(context);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.register(MinioProperties.class, MinioConfig.class, MinioService.class);
+        context.refresh();
+        minioService = context.getBean(MinioService.class);
+
+        content = new byte[32 * 1024];
+        new Random(42).nextBytes(content);
+
+        minioService.createBucketIfNotExists(BUCKET, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void upload() throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        minioService.uploadFile(BUCKET, UUID.randomUUID() + ".pdf", content, false);
+    }
+}
@@ -0,0 +1,88 @@
+package fr.polytech.benchmark;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Record the virtual threads blocked while pinned to their carrier, through the jdk.VirtualThreadPinned events of JFR.
+ * Every pinning is attributed to the first frame of the stack outside of the JDK, i.e. the library which pinned it.
+ */
+public class PinnedThreadRecorder implements AutoCloseable {
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+
+    private final RecordingStream stream = new RecordingStream();
+
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> durations = new ConcurrentHashMap<>();
+
+    /**
+     * Start recording every pinning, whatever its duration
+     */
+    public PinnedThreadRecorder() {
+        stream.enable(EVENT).withThreshold(Duration.ZERO).withStackTrace();
+        stream.onEvent(EVENT, this::record);
+        stream.startAsync();
+    }
+
+    /**
+     * Attribute a pinning to the frame which caused it
+     *
+     * @param event Pinning event
+     */
+    private void record(RecordedEvent event) {
+        String frame = "unknown";
+        if (event.getStackTrace() != null) {
+            List<RecordedFrame> frames = event.getStackTrace().getFrames();
+            frame = frames.stream()
+                    .map(recordedFrame -> recordedFrame.getMethod().getType().getName() + "." + recordedFrame.getMethod().getName())
+                    .filter(name -> !name.startsWith("java.") && !name.startsWith("jdk.") && !name.startsWith("sun."))
+                    .findFirst()
+                    .orElse(frames.isEmpty() ? frame : frames.get(0).getMethod().getType().getName() + "." + frames.get(0).getMethod().getName());
+        }
+        counts.computeIfAbsent(frame, key -> new LongAdder()).increment();
+        durations.computeIfAbsent(frame, key -> new LongAdder()).add(event.getDuration().toNanos());
+    }
+
+    /**
+     * Stop recording, once every pinning recorded so far has been counted
+     */
+    public void stop() {
+        stream.stop();
+    }
+
+    /**
+     * @return Number of pinnings recorded
+     */
+    public long getCount() {
+        return counts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * @return Report of the pinnings, the frames pinning the longest first
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Pinned virtual threads: " + getCount() + " pinnings, "
+                + Duration.ofNanos(durations.values().stream().mapToLong(LongAdder::sum).sum()).toMillis() + " ms\n");
+        durations.entrySet().stream()
+                .sorted((first, second) -> Long.compare(second.getValue().sum(), first.getValue().sum()))
+                .limit(10)
+                .forEach(entry -> report.append("  ").append(counts.get(entry.getKey()).sum()).append(" pinnings, ")
+                        .append(Duration.ofNanos(entry.getValue().sum()).toMillis()).append(" ms in ")
+                        .append(entry.getKey()).append('\n'));
+        return report.toString();
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
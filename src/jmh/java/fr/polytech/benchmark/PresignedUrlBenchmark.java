@@ -0,0 +1,54 @@
+package fr.polytech.benchmark;
+
+import fr.polytech.config.MinioConfig;
+import fr.polytech.config.MinioProperties;
+import fr.polytech.service.MinioService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.errors.MinioException;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature of the presigned download URLs. The region is given to the client, so no request reaches the endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PresignedUrlBenchmark {
+
+    private AnnotationConfigApplicationContext context;
+
+    private MinioService minioService;
+
+    private String objectName;
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.register(MinioProperties.class, MinioConfig.class, MinioService.class);
+        context.refresh();
+        minioService = context.getBean(MinioService.class);
+        objectName = "2023/12/" + UUID.randomUUID() + ".pdf";
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String getPrivateDocumentUrl() throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return minioService.getPrivateDocumentUrl("invoices", objectName);
+    }
+}
@@ -0,0 +1,150 @@
+package fr.polytech.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in of Minio for the benchmarks. Every bucket exists and every object is accepted, its content is
+ * read and discarded after a fixed latency standing for the round trip to a real storage. Every object read has the
+ * same content. The server runs on platform threads, so that only the virtual threads of the application are traced.
+ */
+public class StubS3Server implements AutoCloseable {
+
+    private static final String LAST_MODIFIED = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.now().atOffset(ZoneOffset.UTC));
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final long latencyMs;
+
+    private final AtomicLong uploads = new AtomicLong();
+
+    /**
+     * Content of every object read, the size of a typical invoice PDF
+     */
+    private final byte[] content = new byte[32 * 1024];
+
+    /**
+     * Start the server on a random local port
+     *
+     * @param latencyMs Time taken by every request before it is answered
+     * @throws IOException If the server cannot be started
+     */
+    public StubS3Server(long latencyMs) throws IOException {
+        this.latencyMs = latencyMs;
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Serve another resource from the same server, e.g. the JWK set of the access tokens
+     *
+     * @param path    Path of the resource
+     * @param handler Handler of its requests
+     */
+    public void serve(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    /**
+     * @return URL of the server
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return Number of objects uploaded since the server started
+     */
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    /**
+     * Answer a request to a bucket or to an object: the content of the object for a read, an empty success otherwise
+     *
+     * @param exchange Request
+     * @throws IOException If the request cannot be read or answered
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+
+            String method = exchange.getRequestMethod();
+            boolean object = exchange.getRequestURI().getPath().indexOf('/', 1) > 0;
+            if (object && ("GET".equals(method) || "HEAD".equals(method))) {
+                sendContent(exchange);
+                return;
+            }
+
+            if ("PUT".equals(method) && object) {
+                uploads.incrementAndGet();
+            }
+            exchange.getResponseHeaders().set("ETag", "\"" + UUID.randomUUID().toString().replace("-", "") + "\"");
+            exchange.sendResponseHeaders(200, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Answer the read of an object, or of the single byte range it requests
+     *
+     * @param exchange Request to an object
+     * @throws IOException If the response cannot be written
+     */
+    private void sendContent(HttpExchange exchange) throws IOException {
+        int start = 0;
+        int end = content.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+
+        exchange.getResponseHeaders().set("ETag", "\"benchmark\"");
+        exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+        exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(range == null ? 200 : 206, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, start, end - start + 1);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
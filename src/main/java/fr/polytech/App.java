@@ -2,10 +2,16 @@ package fr.polytech;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class App {
     public static void main(String[] args) {
-        SpringApplication.run(fr.polytech.App.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(fr.polytech.App.class, args);
+
+        // Training run of the class data sharing archive built with the image: stop once the context is started
+        if (context.getEnvironment().getProperty("invoice.startup.exit-after-refresh", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package fr.polytech.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Endpoint whose concurrency and rate per caller are limited by the invoice.rate-limit.endpoints.&lt;name&gt; settings.
+ * The endpoints sharing a name share their limits. An endpoint whose name has no settings is not limited.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+
+    /**
+     * Name of the endpoint in the settings
+     *
+     * @return Name of the endpoint
+     */
+    String value();
+}
@@ -0,0 +1,126 @@
+package fr.polytech.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * True to run the I/O bound pools on virtual threads, the pools still bound the number of concurrent tasks
+     */
+    @Value("${invoice.threads.virtual:false}")
+    private boolean virtualThreads;
+
+    /**
+     * Bounded pool relaying the invoice outbox, rendering and uploading the invoice PDFs
+     *
+     * @param workers       Number of worker threads
+     * @param queueCapacity Number of uploads waiting for a worker, uploads rejected by the pool stay in the outbox
+     * @return Executor of the invoice uploads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor invoiceWorkerExecutor(@Value("${invoice.outbox.workers:4}") int workers,
+                                                        @Value("${invoice.outbox.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("invoice-worker-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("invoice-worker-", 0).factory());
+        }
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * CPU bound pool rendering the PDFs of the invoice batches
+     *
+     * @return Executor of the PDF rendering
+     */
+    @Bean
+    public ThreadPoolTaskExecutor invoiceRenderExecutor() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(processors);
+        executor.setMaxPoolSize(processors);
+        executor.setThreadNamePrefix("invoice-render-");
+        return executor;
+    }
+
+    /**
+     * I/O bound pool uploading the PDFs of the invoice batches to Minio
+     *
+     * @param threads Number of concurrent uploads
+     * @return Executor of the PDF uploads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor invoiceUploadExecutor(@Value("${invoice.batch.upload-threads:32}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("invoice-upload-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("invoice-upload-", 0).factory());
+        }
+        return executor;
+    }
+
+    /**
+     * I/O bound pool loading the invoices missing from the cache, so that the queries do not run inside the cache map
+     *
+     * @param threads Number of invoices loaded concurrently
+     * @return Executor of the cache loads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor invoiceCacheLoadExecutor(@Value("${invoice.cache.load-threads:16}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("invoice-cache-load-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("invoice-cache-load-", 0).factory());
+        }
+        return executor;
+    }
+
+    /**
+     * I/O bound pool writing the streamed responses, such as the PDF downloads
+     *
+     * @param threads Number of responses streamed concurrently
+     * @return Executor of the Spring MVC asynchronous requests
+     */
+    @Bean
+    public ThreadPoolTaskExecutor streamingExecutor(@Value("${invoice.streaming.threads:64}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("invoice-streaming-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("invoice-streaming-", 0).factory());
+        }
+        return executor;
+    }
+
+    /**
+     * I/O bound pool prefetching the PDFs of the invoice exports from Minio
+     *
+     * @param threads Number of PDFs fetched concurrently over all the exports
+     * @return Executor of the PDF downloads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor invoiceExportExecutor(@Value("${invoice.export.threads:32}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("invoice-export-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("invoice-export-", 0).factory());
+        }
+        return executor;
+    }
+}
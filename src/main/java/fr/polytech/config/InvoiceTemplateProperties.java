@@ -0,0 +1,54 @@
+package fr.polytech.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selection of the invoice PDF templates
+ */
+@Component
+@ConfigurationProperties(prefix = "invoice.pdf.template")
+public class InvoiceTemplateProperties {
+
+    /**
+     * False to lay out every invoice from scratch instead of using the templates
+     */
+    private boolean enabled = true;
+
+    /**
+     * Version of the template used by the plans without a specific one
+     */
+    private String defaultVersion = "v1";
+
+    /**
+     * Version of the template used by each plan
+     */
+    private Map<String, String> plans = new HashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDefaultVersion() {
+        return defaultVersion;
+    }
+
+    public void setDefaultVersion(String defaultVersion) {
+        this.defaultVersion = defaultVersion;
+    }
+
+    public Map<String, String> getPlans() {
+        return plans;
+    }
+
+    public void setPlans(Map<String, String> plans) {
+        this.plans = plans;
+    }
+}
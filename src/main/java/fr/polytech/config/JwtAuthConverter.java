@@ -1,5 +1,13 @@
 package fr.polytech.config;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.AbstractAuthenticationToken;
@@ -10,9 +18,12 @@ import org.springframework.security.oauth2.server.resource.authentication.JwtAut
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,6 +32,36 @@ public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationTo
 
     private final JwtGrantedAuthoritiesConverter jwtGrantedAuthoritiesConverter;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Number of tokens whose authorities are cached, 0 to extract the authorities on every request
+     */
+    @Value("${invoice.security.authorities-cache.max-size:10000}")
+    private long authoritiesCacheMaxSize;
+
+    /**
+     * Time the authorities of a token without expiration date are cached
+     */
+    @Value("${invoice.security.authorities-cache.max-ttl-seconds:300}")
+    private long authoritiesCacheMaxTtlSeconds;
+
+    /**
+     * Authorities of the recent tokens, keyed by token signature. A signature identifies the content of a token,
+     * so a cached entry always holds the authorities the token would be converted to.
+     */
+    private Cache<String, CachedAuthorities> authoritiesCache;
+
+    /**
+     * Authorities of a token, kept until the token expires
+     *
+     * @param authorities Immutable authorities of the token
+     * @param expiresAt   Expiration date of the token, or null
+     */
+    private record CachedAuthorities(Set<GrantedAuthority> authorities, Instant expiresAt) {
+    }
+
     public JwtAuthConverter() {
         this.jwtGrantedAuthoritiesConverter = new JwtGrantedAuthoritiesConverter();
     }
@@ -28,6 +69,44 @@ public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationTo
     private final String principleAttribute = System.getenv("PRINCIPLE_ATTRIBUTE_NAME");
     private final String resourceId = System.getenv("RESOURCE_ID");
 
+    /**
+     * Initialize the cache of authorities, each entry expires with its token, and expose its statistics
+     */
+    @PostConstruct
+    public void initAuthoritiesCache() {
+        if (authoritiesCacheMaxSize <= 0) {
+            return;
+        }
+
+        long maxTtlNanos = TimeUnit.SECONDS.toNanos(authoritiesCacheMaxTtlSeconds);
+        authoritiesCache = Caffeine.newBuilder()
+                .maximumSize(authoritiesCacheMaxSize)
+                .expireAfter(new Expiry<String, CachedAuthorities>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedAuthorities value, long currentTime) {
+                        if (value.expiresAt() == null) {
+                            return maxTtlNanos;
+                        }
+                        long ttlNanos = Duration.between(Instant.now(), value.expiresAt()).toNanos();
+                        return Math.max(0, Math.min(ttlNanos, maxTtlNanos));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedAuthorities value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedAuthorities value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, authoritiesCache, "jwt.authorities");
+    }
+
     /**
      * Convert a Jwt to an AbstractAuthenticationToken
      *
@@ -36,10 +115,9 @@ public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationTo
      */
     @Override
     public AbstractAuthenticationToken convert(@NonNull Jwt jwt) {
-        Collection<GrantedAuthority> authorities = Stream.concat(
-                jwtGrantedAuthoritiesConverter.convert(jwt).stream(),
-                extractResourceRoles(jwt).stream()
-        ).collect(Collectors.toSet());
+        Set<GrantedAuthority> authorities = authoritiesCache == null
+                ? extractAuthorities(jwt)
+                : authoritiesCache.get(getSignature(jwt), signature -> new CachedAuthorities(extractAuthorities(jwt), jwt.getExpiresAt())).authorities();
 
         return new JwtAuthenticationToken(
                 jwt,
@@ -48,6 +126,30 @@ public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationTo
         );
     }
 
+    /**
+     * Extract the authorities of a Jwt, from its scopes and from the roles of the resource
+     *
+     * @param jwt Jwt to extract the authorities from
+     * @return Immutable set of authorities
+     */
+    private Set<GrantedAuthority> extractAuthorities(Jwt jwt) {
+        return Stream.concat(
+                jwtGrantedAuthoritiesConverter.convert(jwt).stream(),
+                extractResourceRoles(jwt).stream()
+        ).collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Get the signature of a Jwt, the last part of its compact serialization
+     *
+     * @param jwt Jwt to get the signature of
+     * @return Signature of the Jwt
+     */
+    private static String getSignature(Jwt jwt) {
+        String tokenValue = jwt.getTokenValue();
+        return tokenValue.substring(tokenValue.lastIndexOf('.') + 1);
+    }
+
     /**
      * Get the name of the principle from the Jwt
      *
@@ -0,0 +1,178 @@
+package fr.polytech.config;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class JwtDecoderConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(JwtDecoderConfig.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri}")
+    private String issuerUri;
+
+    @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}")
+    private String jwkSetUri;
+
+    /**
+     * Time the keys are used before being fetched again
+     */
+    @Value("${invoice.security.jwks.cache-ttl-seconds:300}")
+    private long cacheTtlSeconds;
+
+    /**
+     * Time the keys are fetched again before they expire, in the background
+     */
+    @Value("${invoice.security.jwks.refresh-ahead-seconds:30}")
+    private long refreshAheadSeconds;
+
+    /**
+     * Time a request waits for a refresh started by another request
+     */
+    @Value("${invoice.security.jwks.refresh-timeout-ms:15000}")
+    private long refreshTimeoutMs;
+
+    /**
+     * Time the last known keys are still used while the issuer cannot be reached
+     */
+    @Value("${invoice.security.jwks.outage-tolerant-seconds:3600}")
+    private long outageTolerantSeconds;
+
+    @Value("${invoice.security.jwks.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${invoice.security.jwks.read-timeout-ms:2000}")
+    private int readTimeoutMs;
+
+    /**
+     * Decoder of the access tokens. The JWK set is fetched at startup, refreshed ahead of its expiration and kept
+     * while the issuer is down, so that no request waits for the issuer. The decoding time is exported as jwt.decode.
+     *
+     * @return Decoder validating the signature, the expiration and the issuer of the tokens
+     * @throws MalformedURLException If the JWK set URI is invalid
+     */
+    @Bean
+    public JwtDecoder jwtDecoder() throws MalformedURLException {
+        return buildDecoder(buildJwkSource());
+    }
+
+    /**
+     * Source of the keys: cached, refreshed ahead of its expiration, kept while the issuer is down and fetched again
+     * once when a fetch fails
+     *
+     * @return Source of the keys, not loaded yet
+     * @throws MalformedURLException If the JWK set URI is invalid
+     */
+    JWKSource<SecurityContext> buildJwkSource() throws MalformedURLException {
+        return JWKSourceBuilder.create(new URL(jwkSetUri), new TimedResourceRetriever())
+                .cache(TimeUnit.SECONDS.toMillis(cacheTtlSeconds), refreshTimeoutMs)
+                .refreshAheadCache(TimeUnit.SECONDS.toMillis(refreshAheadSeconds), true)
+                .outageTolerant(TimeUnit.SECONDS.toMillis(outageTolerantSeconds))
+                .retrying(true)
+                .build();
+    }
+
+    /**
+     * Decoder of the access tokens, its keys preloaded from a source
+     *
+     * @param jwkSource Source of the keys
+     * @return Decoder validating the signature, the expiration and the issuer of the tokens
+     */
+    JwtDecoder buildDecoder(JWKSource<SecurityContext> jwkSource) {
+        preloadKeys(jwkSource);
+
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSource));
+        // The claims are validated by Spring Security
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+
+        NimbusJwtDecoder decoder = new NimbusJwtDecoder(jwtProcessor);
+        decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(issuerUri));
+
+        return token -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            String outcome = "error";
+            try {
+                Jwt jwt = decoder.decode(token);
+                outcome = "success";
+                return jwt;
+            } finally {
+                sample.stop(Timer.builder("jwt.decode")
+                        .description("Duration of the decoding and validation of the access tokens")
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+            }
+        };
+    }
+
+    /**
+     * Fetch the JWK set before the first request. If the issuer cannot be reached, the keys are fetched on first use.
+     *
+     * @param jwkSource Source of the keys
+     */
+    private void preloadKeys(JWKSource<SecurityContext> jwkSource) {
+        try {
+            List<JWK> keys = jwkSource.get(new JWKSelector(new JWKMatcher.Builder().build()), null);
+            logger.info("Loaded " + keys.size() + " keys from " + jwkSetUri);
+        } catch (KeySourceException e) {
+            logger.warn("Could not load the keys from " + jwkSetUri + ", they will be loaded by the first request", e);
+        }
+    }
+
+    /**
+     * Retriever of the JWK set timing every fetch, exported as jwt.jwks.refresh
+     */
+    private class TimedResourceRetriever implements ResourceRetriever {
+
+        private final ResourceRetriever delegate = new DefaultResourceRetriever(connectTimeoutMs, readTimeoutMs, 64 * 1024);
+
+        @Override
+        public Resource retrieveResource(URL url) throws IOException {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            String outcome = "error";
+            try {
+                Resource resource = delegate.retrieveResource(url);
+                outcome = "success";
+                return resource;
+            } finally {
+                sample.stop(Timer.builder("jwt.jwks.refresh")
+                        .description("Duration of the fetches of the JWK set")
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+            }
+        }
+    }
+}
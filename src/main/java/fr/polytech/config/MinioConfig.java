@@ -0,0 +1,92 @@
+package fr.polytech.config;
+
+import io.minio.MinioClient;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class MinioConfig {
+
+    @Autowired
+    private MinioProperties minioProperties;
+
+    @Value("${invoice.threads.virtual:false}")
+    private boolean virtualThreads;
+
+    /**
+     * HTTP client shared by every request to Minio. The Minio client sends its requests through the dispatcher,
+     * so its limits bound the number of concurrent uploads. Built on the first request to Minio, not at startup.
+     *
+     * @return OkHttp client with the configured pool and timeouts
+     */
+    @Bean
+    @Lazy
+    public OkHttpClient minioHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(minioProperties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(minioProperties.getMaxRequestsPerHost());
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(minioProperties.getMaxIdleConnections(),
+                        minioProperties.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .connectTimeout(minioProperties.getConnectTimeout())
+                .readTimeout(minioProperties.getReadTimeout())
+                .writeTimeout(minioProperties.getWriteTimeout())
+                .retryOnConnectionFailure(true);
+
+        if (minioProperties.isHttp2()) {
+            builder.protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        } else {
+            builder.protocols(List.of(Protocol.HTTP_1_1));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Client of the Minio server, built on the first request to Minio, not at startup
+     *
+     * @param minioHttpClient HTTP client used by the Minio client
+     * @return Minio client
+     */
+    @Bean
+    @Lazy
+    public MinioClient minioClient(OkHttpClient minioHttpClient) {
+        return MinioClient.builder()
+                .endpoint(minioProperties.getEndpoint())
+                .credentials(minioProperties.getAccessKey(), minioProperties.getSecretKey())
+                .region(minioProperties.getRegion())
+                .httpClient(minioHttpClient)
+                .build();
+    }
+
+    /**
+     * I/O bound pool uploading the parts of the objects streamed to Minio without a known length
+     *
+     * @param threads Number of parts uploaded concurrently over all the streamed objects
+     * @return Executor of the part uploads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor minioPartUploadExecutor(@Value("${minio.part-upload-threads:16}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("minio-part-upload-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("minio-part-upload-", 0).factory());
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,207 @@
+package fr.polytech.config;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Connection to the Minio server and tuning of its HTTP client
+ */
+@Component
+@ConfigurationProperties(prefix = "minio")
+public class MinioProperties {
+
+    /**
+     * URL of the Minio server
+     */
+    private String endpoint = "http://invoice-minio:9000";
+
+    /**
+     * Access key of the server, required
+     */
+    private String accessKey;
+
+    /**
+     * Secret key of the server, required
+     */
+    private String secretKey;
+
+    private String region = "europe";
+
+    /**
+     * Number of idle connections kept open to the server
+     */
+    private int maxIdleConnections = 64;
+
+    /**
+     * Time an idle connection is kept open
+     */
+    private Duration keepAlive = Duration.ofMinutes(5);
+
+    /**
+     * Number of concurrent requests to the server, OkHttp allows only 5 by default
+     */
+    private int maxRequestsPerHost = 256;
+
+    /**
+     * Number of concurrent requests over all hosts
+     */
+    private int maxRequests = 256;
+
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    private Duration readTimeout = Duration.ofSeconds(30);
+
+    private Duration writeTimeout = Duration.ofSeconds(30);
+
+    /**
+     * True to offer HTTP/2 to the server, only negotiated over TLS
+     */
+    private boolean http2 = true;
+
+    /**
+     * Size of the parts of the objects streamed without a known length, at least 5MB
+     */
+    private DataSize partSize = DataSize.ofMegabytes(16);
+
+    /**
+     * Number of parts of a streamed object held in memory at once, read or being uploaded
+     */
+    private int maxPartsInFlight = 4;
+
+    /**
+     * Stop the startup when a credential of the server is missing, rather than failing on the first upload
+     *
+     * @throws IllegalStateException If the access key or the secret key is not set
+     */
+    @PostConstruct
+    public void checkCredentials() {
+        if (isMissing(accessKey) || isMissing(secretKey)) {
+            throw new IllegalStateException("The Minio credentials are missing, set MINIO_ACCESS_KEY and MINIO_SECRET_KEY");
+        }
+    }
+
+    /**
+     * @param value Bound value of a property
+     * @return True if the property is empty or still an unresolved placeholder, such as a missing environment variable
+     */
+    private static boolean isMissing(String value) {
+        return !StringUtils.hasText(value) || value.startsWith("${");
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    public void setAccessKey(String accessKey) {
+        this.accessKey = accessKey;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = secretKey;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Duration getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public void setWriteTimeout(Duration writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public DataSize getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(DataSize partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getMaxPartsInFlight() {
+        return maxPartsInFlight;
+    }
+
+    public void setMaxPartsInFlight(int maxPartsInFlight) {
+        this.maxPartsInFlight = maxPartsInFlight;
+    }
+}
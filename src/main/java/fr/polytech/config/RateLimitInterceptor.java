@@ -0,0 +1,258 @@
+package fr.polytech.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.polytech.annotation.RateLimited;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Interceptor applying the limits of the endpoints annotated with RateLimited. Each endpoint has a bulkhead bounding
+ * the requests it handles at once, so that a burst on an expensive endpoint cannot take every Tomcat thread, and a
+ * token bucket per caller, keyed by the principal extracted from the JWT. The rejected requests are answered right
+ * away instead of waiting: 503 when the bulkhead is full, 429 when the caller is over its rate.
+ */
+@Component
+public class RateLimitInterceptor implements AsyncHandlerInterceptor {
+
+    /**
+     * Request attribute holding the limiter whose bulkhead the request entered
+     */
+    private static final String LIMITER_ATTRIBUTE = RateLimitInterceptor.class.getName() + ".limiter";
+
+    @Autowired
+    private RateLimitProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Map<String, EndpointLimiter> limiters;
+
+    /**
+     * Build the limiters of the configured endpoints and expose their meters
+     */
+    @PostConstruct
+    public void initLimiters() {
+        Map<String, EndpointLimiter> endpointLimiters = new HashMap<>();
+        properties.getEndpoints().forEach((name, limits) -> endpointLimiters.put(name, new EndpointLimiter(name, limits)));
+        limiters = Map.copyOf(endpointLimiters);
+    }
+
+    @Override
+    public boolean preHandle(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler) {
+        // The asynchronous dispatch of a streamed response was already admitted by the initial dispatch
+        if (!properties.isEnabled() || request.getDispatcherType() != DispatcherType.REQUEST
+                || !(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        RateLimited rateLimited = handlerMethod.getMethodAnnotation(RateLimited.class);
+        EndpointLimiter limiter = rateLimited == null ? null : limiters.get(rateLimited.value());
+        if (limiter == null) {
+            return true;
+        }
+
+        if (!limiter.tryEnter()) {
+            limiter.bulkheadRejections.increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return false;
+        }
+
+        long waitNanos = limiter.tryConsume(getCaller(request));
+        if (waitNanos > 0) {
+            limiter.exit();
+            limiter.rateLimitRejections.increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            return false;
+        }
+
+        request.setAttribute(LIMITER_ATTRIBUTE, limiter);
+        return true;
+    }
+
+    /**
+     * Leave the bulkhead once the response is complete, after the asynchronous dispatch for the streamed responses
+     */
+    @Override
+    public void afterCompletion(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler, Exception ex) {
+        if (request.getAttribute(LIMITER_ATTRIBUTE) instanceof EndpointLimiter limiter) {
+            request.removeAttribute(LIMITER_ATTRIBUTE);
+            limiter.exit();
+        }
+    }
+
+    /**
+     * Get the caller of a request, the rates are limited per caller
+     *
+     * @param request Request
+     * @return Name of the authenticated principal, or the address of the client
+     */
+    private String getCaller(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        return principal != null ? principal.getName() : request.getRemoteAddr();
+    }
+
+    /**
+     * Bulkhead and token buckets of an endpoint
+     */
+    private final class EndpointLimiter {
+
+        private final RateLimitProperties.Endpoint limits;
+
+        /**
+         * Permits of the bulkhead, null if the concurrency is not limited
+         */
+        private final Semaphore bulkhead;
+
+        /**
+         * Token bucket of each caller, null if the rate is not limited
+         */
+        private final Cache<String, TokenBucket> buckets;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final Counter bulkheadRejections;
+
+        private final Counter rateLimitRejections;
+
+        private EndpointLimiter(String name, RateLimitProperties.Endpoint limits) {
+            this.limits = limits;
+            this.bulkhead = limits.getMaxConcurrent() > 0 ? new Semaphore(limits.getMaxConcurrent()) : null;
+
+            if (limits.getPermitsPerSecond() > 0) {
+                buckets = Caffeine.newBuilder()
+                        .maximumSize(properties.getMaxCallers())
+                        .expireAfterAccess(properties.getCallerIdleTimeout())
+                        .recordStats()
+                        .build();
+                CaffeineCacheMetrics.monitor(meterRegistry, buckets, "invoice.rate-limit.callers", "endpoint", name);
+            } else {
+                buckets = null;
+            }
+
+            Gauge.builder("invoice.requests.in-flight", inFlight, AtomicInteger::get)
+                    .description("Requests being handled by a rate limited endpoint")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            bulkheadRejections = rejections(name, "bulkhead");
+            rateLimitRejections = rejections(name, "rate_limit");
+        }
+
+        /**
+         * Build the counter of the requests rejected by a limit
+         *
+         * @param name   Name of the endpoint
+         * @param reason Limit rejecting the requests
+         * @return Registered counter
+         */
+        private Counter rejections(String name, String reason) {
+            return Counter.builder("invoice.requests.rejected")
+                    .description("Requests rejected by the bulkhead (503) or the rate limit (429) of an endpoint")
+                    .tag("endpoint", name)
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Enter the bulkhead without waiting
+         *
+         * @return False if the endpoint is already handling its maximum number of requests
+         */
+        private boolean tryEnter() {
+            if (bulkhead != null && !bulkhead.tryAcquire()) {
+                return false;
+            }
+            inFlight.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * Leave the bulkhead
+         */
+        private void exit() {
+            inFlight.decrementAndGet();
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+        }
+
+        /**
+         * Take a token from the bucket of a caller
+         *
+         * @param caller Name of the caller
+         * @return 0 if a token was taken, otherwise the time in nanoseconds until the next token
+         */
+        private long tryConsume(String caller) {
+            if (buckets == null) {
+                return 0;
+            }
+            int burst = Math.max(1, limits.getBurst());
+            return buckets.get(caller, key -> new TokenBucket(burst)).tryConsume(limits.getPermitsPerSecond(), burst);
+        }
+    }
+
+    /**
+     * Token bucket of a caller, refilled lazily on each request. A lock rather than synchronized, so that a virtual
+     * thread holding it is not pinned to its carrier.
+     */
+    private static final class TokenBucket {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private double tokens;
+
+        private long refilledAt;
+
+        private TokenBucket(int burst) {
+            this.tokens = burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        /**
+         * Refill the bucket for the time elapsed since the last request, then take a token
+         *
+         * @param permitsPerSecond Tokens added per second
+         * @param burst            Capacity of the bucket
+         * @return 0 if a token was taken, otherwise the time in nanoseconds until the next token
+         */
+        private long tryConsume(double permitsPerSecond, int burst) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+                refilledAt = now;
+
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return 0;
+                }
+                return (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package fr.polytech.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Concurrency bulkheads and rate limits of the endpoints annotated with RateLimited
+ */
+@Component
+@ConfigurationProperties(prefix = "invoice.rate-limit")
+public class RateLimitProperties {
+
+    /**
+     * False to accept every request
+     */
+    private boolean enabled = true;
+
+    /**
+     * Number of callers whose token buckets are kept, per endpoint
+     */
+    private long maxCallers = 10000;
+
+    /**
+     * Time after which the token bucket of an idle caller is dropped, it is full again by then
+     */
+    private Duration callerIdleTimeout = Duration.ofMinutes(10);
+
+    /**
+     * Limits of each endpoint, by name. A name without limits, including a name missing from the settings, accepts
+     * every request.
+     */
+    private Map<String, Endpoint> endpoints = new HashMap<>();
+
+    /**
+     * Limits of an endpoint
+     */
+    public static class Endpoint {
+
+        /**
+         * Number of requests handled at once over all callers, 0 for no limit. Requests above it get a 503.
+         */
+        private int maxConcurrent;
+
+        /**
+         * Sustained number of requests per second of a caller, 0 for no limit. Requests above it get a 429.
+         */
+        private double permitsPerSecond;
+
+        /**
+         * Number of requests a caller can send at once after being idle, at least 1
+         */
+        private int burst = 1;
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public double getPermitsPerSecond() {
+            return permitsPerSecond;
+        }
+
+        public void setPermitsPerSecond(double permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxCallers() {
+        return maxCallers;
+    }
+
+    public void setMaxCallers(long maxCallers) {
+        this.maxCallers = maxCallers;
+    }
+
+    public Duration getCallerIdleTimeout() {
+        return callerIdleTimeout;
+    }
+
+    public void setCallerIdleTimeout(Duration callerIdleTimeout) {
+        this.callerIdleTimeout = callerIdleTimeout;
+    }
+
+    public Map<String, Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(Map<String, Endpoint> endpoints) {
+        this.endpoints = endpoints;
+    }
+}
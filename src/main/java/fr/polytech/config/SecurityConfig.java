@@ -1,5 +1,6 @@
 package fr.polytech.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
@@ -15,10 +16,17 @@ import static org.springframework.security.config.http.SessionCreationPolicy.STA
 @EnableMethodSecurity
 public class SecurityConfig {
 
-    private final JwtAuthConverter jwtAuthConverter = new JwtAuthConverter();
+    /**
+     * Client role of the scrapers allowed to read the metrics
+     */
+    public static final String METRICS_ROLE = "client_metrics";
+
+    @Autowired
+    private JwtAuthConverter jwtAuthConverter;
 
     /**
-     * Configure the security filter chain to intercept all requests
+     * Configure the security filter chain to intercept all requests. Only the health probes are public, the metrics are
+     * served to the scrapers having the metrics role.
      * @param http HttpSecurity object to configure
      * @return SecurityFilterChain to be used by Spring Security
      * @throws Exception if an error occurs while configuring the HttpSecurity object
@@ -27,7 +35,10 @@ public class SecurityConfig {
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
-                .authorizeHttpRequests((auth) -> auth.anyRequest().authenticated());
+                .authorizeHttpRequests((auth) -> auth
+                        .requestMatchers("/actuator/health/**").permitAll()
+                        .requestMatchers("/actuator/prometheus").hasRole(METRICS_ROLE)
+                        .anyRequest().authenticated());
 
         http
                 .oauth2ResourceServer((oauth2) -> oauth2
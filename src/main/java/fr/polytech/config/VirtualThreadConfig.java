@@ -0,0 +1,51 @@
+package fr.polytech.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Serve the HTTP requests on virtual threads, so that the threads blocked on Minio and JDBC calls do not hold a
+ * platform thread.
+ */
+@Configuration
+@ConditionalOnProperty(name = "invoice.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+    /**
+     * Replace the Tomcat worker pool by one virtual thread per request
+     *
+     * @return Customizer of the Tomcat protocol handler
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Make the requests wait for a free connection before asking the pool for one, the pool no longer bounding the
+     * number of requests at once
+     *
+     * @return Post processor wrapping the connection pool
+     */
+    @Bean
+    public static BeanPostProcessor connectionPermitPostProcessor() {
+        // The size of the pool is only set to its default once the pool starts
+        int defaultPoolSize = 10;
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource) {
+                    int poolSize = dataSource.getMaximumPoolSize() > 0 ? dataSource.getMaximumPoolSize() : defaultPoolSize;
+                    return new ConnectionPermitDataSource(dataSource, poolSize, dataSource.getConnectionTimeout());
+                }
+                return bean;
+            }
+        };
+    }
+}
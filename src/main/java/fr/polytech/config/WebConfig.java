@@ -0,0 +1,48 @@
+package fr.polytech.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private ThreadPoolTaskExecutor streamingExecutor;
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    /**
+     * Time a streamed response may take to be written, -1 for no limit. The asynchronous requests are otherwise
+     * timed out by the container after 30 s, truncating the exports and the slow downloads.
+     */
+    @Value("${invoice.streaming.timeout-ms:3600000}")
+    private long streamingTimeoutMs;
+
+    /**
+     * Write the streamed responses on a bounded pool instead of one new thread per response, with a timeout long
+     * enough for the largest exports
+     *
+     * @param configurer Configurer of the asynchronous requests
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingExecutor);
+        configurer.setDefaultTimeout(streamingTimeoutMs);
+    }
+
+    /**
+     * Apply the bulkheads and rate limits of the endpoints
+     *
+     * @param registry Registry of the interceptors
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(rateLimitInterceptor);
+    }
+}
@@ -0,0 +1,11 @@
+package fr.polytech.exception;
+
+/**
+ * Thrown when an idempotency key is sent again with a request different from the one which recorded it
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package fr.polytech.exception;
+
+/**
+ * Thrown when a request is rejected because the service is overloaded
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+}
@@ -1,22 +1,60 @@
 package fr.polytech.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
 
 import java.sql.Date;
 import java.util.UUID;
 
 @Entity
 @Table(name = "invoice", schema = "public")
-public class Invoice {
+public class Invoice implements Persistable<UUID> {
 
+    /**
+     * ID generated by the application, so that the invoice is stored with a single insert
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
 
     private Date creationDate;
 
     private String pdfUrl;
 
+    /**
+     * Hex encoded SHA-256 hash of the PDF, null until the PDF is stored
+     */
+    private String contentHash;
+
+    /**
+     * Size of the PDF in bytes, null until the PDF is stored
+     */
+    private Long contentSize;
+
+    @Enumerated(EnumType.STRING)
+    private InvoiceStatus status;
+
+    @Transient
+    private boolean isNew = true;
+
+    /**
+     * The ID is assigned by the application, so the entity tells Spring Data whether it has been inserted yet
+     *
+     * @return True if the entity has not been inserted nor loaded
+     */
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    @Override
     public UUID getId() {
         return id;
     }
@@ -40,4 +78,28 @@ public class Invoice {
     public void setPdfUrl(String pdfUrl) {
         this.pdfUrl = pdfUrl;
     }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Long getContentSize() {
+        return contentSize;
+    }
+
+    public void setContentSize(Long contentSize) {
+        this.contentSize = contentSize;
+    }
+
+    public InvoiceStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(InvoiceStatus status) {
+        this.status = status;
+    }
 }
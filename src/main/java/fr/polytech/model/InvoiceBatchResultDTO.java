@@ -0,0 +1,40 @@
+package fr.polytech.model;
+
+public class InvoiceBatchResultDTO {
+    private int index;
+    private Invoice invoice;
+    private String error;
+
+    public InvoiceBatchResultDTO() {
+    }
+
+    public InvoiceBatchResultDTO(int index, Invoice invoice, String error) {
+        this.index = index;
+        this.invoice = invoice;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Invoice getInvoice() {
+        return invoice;
+    }
+
+    public void setInvoice(Invoice invoice) {
+        this.invoice = invoice;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
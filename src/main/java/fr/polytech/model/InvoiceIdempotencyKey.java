@@ -0,0 +1,94 @@
+package fr.polytech.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Idempotency key of an invoice creation, inserted in the same transaction as the invoice it created
+ */
+@Entity
+@Table(name = "invoice_idempotency_key", schema = "public")
+public class InvoiceIdempotencyKey implements Persistable<String> {
+
+    /**
+     * Key sent by the client, prefixed by the name of the principal who sent it
+     */
+    @Id
+    private String id;
+
+    private UUID invoiceId;
+
+    /**
+     * Hex encoded SHA-256 hash of the request which recorded the key, null for the keys recorded before it was kept
+     */
+    private String requestHash;
+
+    private Timestamp createdAt;
+
+    @Transient
+    private boolean isNew = true;
+
+    public InvoiceIdempotencyKey() {
+    }
+
+    public InvoiceIdempotencyKey(String id, UUID invoiceId, String requestHash) {
+        this.id = id;
+        this.invoiceId = invoiceId;
+        this.requestHash = requestHash;
+        this.createdAt = new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * The ID is assigned by the client, so the entity tells Spring Data whether it has been inserted yet
+     *
+     * @return True if the entity has not been inserted nor loaded
+     */
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public UUID getInvoiceId() {
+        return invoiceId;
+    }
+
+    public void setInvoiceId(UUID invoiceId) {
+        this.invoiceId = invoiceId;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public void setRequestHash(String requestHash) {
+        this.requestHash = requestHash;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Timestamp createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,206 @@
+package fr.polytech.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Pending upload of an invoice PDF, inserted in the same transaction as the invoice and removed once the PDF is uploaded
+ */
+@Entity
+@Table(name = "invoice_outbox", schema = "public")
+public class InvoiceOutbox implements Persistable<UUID> {
+
+    /**
+     * ID of the invoice to generate
+     */
+    @Id
+    private UUID id;
+
+    /**
+     * Key the PDF is uploaded to
+     */
+    private String objectKey;
+
+    private Timestamp createdAt;
+
+    /**
+     * Number of failed upload attempts
+     */
+    private int attempts;
+
+    /**
+     * Date after which the upload can be attempted again
+     */
+    private Timestamp nextAttemptAt;
+
+    /**
+     * Date until which the upload is being processed by the instance which claimed it, null if it is not claimed
+     */
+    private Timestamp claimedUntil;
+
+    private Date creationDate;
+
+    private String name;
+
+    private String surname;
+
+    private String address;
+
+    private String plan;
+
+    private double price;
+
+    @Transient
+    private boolean isNew = true;
+
+    public InvoiceOutbox() {
+    }
+
+    public InvoiceOutbox(UUID id, String objectKey, InvoiceDataDTO invoice) {
+        this.id = id;
+        this.objectKey = objectKey;
+        this.createdAt = new Timestamp(System.currentTimeMillis());
+        this.nextAttemptAt = this.createdAt;
+        this.creationDate = invoice.getCreationDate();
+        this.name = invoice.getName();
+        this.surname = invoice.getSurname();
+        this.address = invoice.getAddress();
+        this.plan = invoice.getPlan();
+        this.price = invoice.getPrice();
+    }
+
+    /**
+     * Get the invoice data to print in the PDF
+     *
+     * @return Invoice data
+     */
+    public InvoiceDataDTO toInvoiceData() {
+        InvoiceDataDTO invoice = new InvoiceDataDTO();
+        invoice.setCreationDate(creationDate);
+        invoice.setName(name);
+        invoice.setSurname(surname);
+        invoice.setAddress(address);
+        invoice.setPlan(plan);
+        invoice.setPrice(price);
+        return invoice;
+    }
+
+    /**
+     * The ID is assigned by the application, so the entity tells Spring Data whether it has been inserted yet
+     *
+     * @return True if the entity has not been inserted nor loaded
+     */
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public void setObjectKey(String objectKey) {
+        this.objectKey = objectKey;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Timestamp createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Timestamp getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Timestamp nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public Timestamp getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(Timestamp claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public void setCreationDate(Date creationDate) {
+        this.creationDate = creationDate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public void setSurname(String surname) {
+        this.surname = surname;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public void setPlan(String plan) {
+        this.plan = plan;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+}
@@ -0,0 +1,32 @@
+package fr.polytech.model;
+
+import java.util.List;
+
+public class InvoicePageDTO {
+    private List<InvoiceSummary> items;
+    private String nextCursor;
+
+    public InvoicePageDTO() {
+    }
+
+    public InvoicePageDTO(List<InvoiceSummary> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<InvoiceSummary> getItems() {
+        return items;
+    }
+
+    public void setItems(List<InvoiceSummary> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
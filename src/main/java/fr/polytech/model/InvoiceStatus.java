@@ -0,0 +1,19 @@
+package fr.polytech.model;
+
+/**
+ * Generation status of an invoice
+ */
+public enum InvoiceStatus {
+    /**
+     * The invoice is stored but its PDF has not been generated yet
+     */
+    PENDING,
+    /**
+     * The PDF of the invoice has been generated and uploaded
+     */
+    COMPLETED,
+    /**
+     * The PDF of the invoice could not be generated
+     */
+    FAILED
+}
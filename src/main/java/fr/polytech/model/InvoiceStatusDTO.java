@@ -0,0 +1,32 @@
+package fr.polytech.model;
+
+import java.util.UUID;
+
+public class InvoiceStatusDTO {
+    private UUID id;
+    private InvoiceStatus status;
+
+    public InvoiceStatusDTO() {
+    }
+
+    public InvoiceStatusDTO(UUID id, InvoiceStatus status) {
+        this.id = id;
+        this.status = status;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public InvoiceStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(InvoiceStatus status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,18 @@
+package fr.polytech.model;
+
+import java.sql.Date;
+import java.util.UUID;
+
+/**
+ * Read-only projection of an invoice, loaded without creating managed entities
+ */
+public interface InvoiceSummary {
+
+    UUID getId();
+
+    Date getCreationDate();
+
+    String getPdfUrl();
+
+    InvoiceStatus getStatus();
+}
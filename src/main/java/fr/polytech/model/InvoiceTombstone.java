@@ -0,0 +1,91 @@
+package fr.polytech.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * PDF of a deleted invoice, inserted in the same transaction as the deletion and removed once the PDF is removed from Minio
+ */
+@Entity
+@Table(name = "invoice_tombstone", schema = "public")
+public class InvoiceTombstone implements Persistable<UUID> {
+
+    /**
+     * ID of the deleted invoice
+     */
+    @Id
+    private UUID id;
+
+    private String bucket;
+
+    private String objectKey;
+
+    private Timestamp deletedAt;
+
+    @Transient
+    private boolean isNew = true;
+
+    public InvoiceTombstone() {
+    }
+
+    public InvoiceTombstone(UUID id, ObjectLocation location) {
+        this.id = id;
+        this.bucket = location.bucket();
+        this.objectKey = location.object();
+        this.deletedAt = new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * The ID is the one of the deleted invoice, so the entity tells Spring Data whether it has been inserted yet
+     *
+     * @return True if the entity has not been inserted nor loaded
+     */
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public void setObjectKey(String objectKey) {
+        this.objectKey = objectKey;
+    }
+
+    public Timestamp getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Timestamp deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+}
@@ -0,0 +1,10 @@
+package fr.polytech.model;
+
+/**
+ * Location of an object stored in Minio
+ *
+ * @param bucket Name of the bucket
+ * @param object Name of the object in the bucket
+ */
+public record ObjectLocation(String bucket, String object) {
+}
@@ -0,0 +1,11 @@
+package fr.polytech.model;
+
+/**
+ * PDF of an invoice stored in the invoice bucket
+ *
+ * @param objectKey   Key of the object
+ * @param contentHash Hex encoded SHA-256 hash of the PDF
+ * @param contentSize Size of the PDF in bytes
+ */
+public record StoredPdf(String objectKey, String contentHash, long contentSize) {
+}
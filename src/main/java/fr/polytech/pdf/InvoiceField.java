@@ -0,0 +1,55 @@
+package fr.polytech.pdf;
+
+import fr.polytech.model.InvoiceDataDTO;
+
+import java.util.UUID;
+
+/**
+ * Variable fields printed on an invoice
+ */
+public enum InvoiceField {
+
+    NUMBER {
+        @Override
+        public String valueOf(UUID id, InvoiceDataDTO invoice) {
+            return id.toString();
+        }
+    },
+
+    CUSTOMER {
+        @Override
+        public String valueOf(UUID id, InvoiceDataDTO invoice) {
+            return invoice.getName() + " " + invoice.getSurname();
+        }
+    },
+
+    ADDRESS {
+        @Override
+        public String valueOf(UUID id, InvoiceDataDTO invoice) {
+            return invoice.getAddress();
+        }
+    },
+
+    PLAN {
+        @Override
+        public String valueOf(UUID id, InvoiceDataDTO invoice) {
+            return invoice.getPlan();
+        }
+    },
+
+    AMOUNT {
+        @Override
+        public String valueOf(UUID id, InvoiceDataDTO invoice) {
+            return invoice.getPrice() + "€";
+        }
+    };
+
+    /**
+     * Get the text printed for this field
+     *
+     * @param id      ID of the invoice
+     * @param invoice Invoice data
+     * @return Text of the field
+     */
+    public abstract String valueOf(UUID id, InvoiceDataDTO invoice);
+}
@@ -0,0 +1,152 @@
+package fr.polytech.pdf;
+
+import fr.polytech.config.InvoiceTemplateProperties;
+import fr.polytech.model.InvoiceDataDTO;
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Renderer of the invoice PDFs. The output only depends on the invoice, so that a regenerated invoice has the same
+ * content, and therefore the same hash, as the first one.
+ */
+@Component
+public class InvoicePdfRenderer {
+
+    @Autowired
+    private InvoiceTemplateRegistry templateRegistry;
+
+    @Autowired
+    private InvoiceTemplateProperties properties;
+
+    /**
+     * True to save the PDFs with compressed object streams and a cross-reference stream
+     */
+    @Value("${invoice.pdf.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    /**
+     * Maximum number of objects in a compressed object stream
+     */
+    @Value("${invoice.pdf.compression.object-stream-size:100}")
+    private int objectStreamSize;
+
+    private CompressParameters compression;
+
+    /**
+     * Initialize the compression of the saved PDFs
+     */
+    @PostConstruct
+    public void initCompression() {
+        compression = compressionEnabled ? new CompressParameters(objectStreamSize) : CompressParameters.NO_COMPRESSION;
+    }
+
+    /**
+     * Render the PDF of an invoice with the template of its plan
+     *
+     * @param id      ID of the invoice
+     * @param invoice Invoice data to print
+     * @param out     Stream the PDF is written to
+     * @throws IOException If an error occurs while creating the PDF
+     */
+    public void render(UUID id, InvoiceDataDTO invoice, OutputStream out) throws IOException {
+        if (!properties.isEnabled()) {
+            renderWithoutTemplate(id, invoice, out);
+            return;
+        }
+
+        try {
+            templateRegistry.getTemplate(invoice.getPlan()).render(id, invoice, out, compression);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Render the PDF of an invoice by laying out the whole page
+     *
+     * @param id      ID of the invoice
+     * @param invoice Invoice data to print
+     * @param out     Stream the PDF is written to
+     * @throws IOException If an error occurs while creating the PDF
+     */
+    public void renderWithoutTemplate(UUID id, InvoiceDataDTO invoice, OutputStream out) throws IOException {
+        // Crée un nouveau document PDF
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            document.addPage(page);
+
+            // Initialise le contenu de la page
+            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                PDType1Font font = new PDType1Font(Standard14Fonts.FontName.COURIER);
+                contentStream.setFont(font, 16);
+                contentStream.beginText();
+                contentStream.newLineAtOffset(50, 750);
+                contentStream.showText("Facture");
+                contentStream.endText();
+
+                contentStream.setFont(font, 12);
+                contentStream.beginText();
+                contentStream.newLineAtOffset(50, 700);
+                contentStream.showText("Numéro de la facture : " + id);
+                contentStream.newLineAtOffset(0, -20);
+                contentStream.showText("Nom du client : " + invoice.getName() + " " + invoice.getSurname());
+                contentStream.newLineAtOffset(0, -20);
+                contentStream.showText("Adresse : " + invoice.getAddress());
+                contentStream.newLineAtOffset(0, -20);
+                contentStream.showText("Prestation choisie : Abonnement annuel " + invoice.getPlan());
+                contentStream.newLineAtOffset(0, -20);
+                contentStream.showText("Montant payé : " + invoice.getPrice() + "€");
+                contentStream.endText();
+
+                // Ajoutez une image (décommentez et ajustez le chemin si nécessaire)
+                // PDImageXObject image = PDImageXObject.createFromFile("chemin_vers_votre_image.jpg", document);
+                // contentStream.drawImage(image, 100, 500);
+            }
+
+            // Enregistre le document PDF dans le flux
+            save(document, id, out, compression);
+        }
+    }
+
+    /**
+     * Save a rendered invoice. PDFBox derives the document identifier from the current time when it is missing,
+     * it is derived from the invoice ID instead so that the output is reproducible.
+     *
+     * @param document    Rendered invoice
+     * @param id          ID of the invoice
+     * @param out         Stream the PDF is written to
+     * @param compression Compression of the saved PDF
+     * @throws IOException If an error occurs while writing the PDF
+     */
+    static void save(PDDocument document, UUID id, OutputStream out, CompressParameters compression) throws IOException {
+        byte[] documentId = ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+
+        COSArray documentIds = new COSArray();
+        documentIds.add(new COSString(documentId));
+        documentIds.add(new COSString(documentId));
+        document.getDocument().getTrailer().setItem(COSName.ID, documentIds);
+
+        document.save(out, compression);
+    }
+}
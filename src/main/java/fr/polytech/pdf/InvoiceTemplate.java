@@ -0,0 +1,186 @@
+package fr.polytech.pdf;
+
+import fr.polytech.model.InvoiceDataDTO;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Invoice layout whose static part (title, labels, logo, footer) is rendered once into a base PDF.
+ * Rendering an invoice only appends the variable fields to a copy of the base PDF.
+ */
+public final class InvoiceTemplate {
+
+    /**
+     * Position of a variable field on the page
+     */
+    private record FieldPosition(InvoiceField field, float x, float y, float fontSize) {
+    }
+
+    private final String version;
+
+    private final byte[] basePdf;
+
+    /**
+     * Name of the font in the resources of the base page, reused by the variable fields
+     */
+    private final COSName fontName;
+
+    private final List<FieldPosition> fields;
+
+    private InvoiceTemplate(String version, byte[] basePdf, COSName fontName, List<FieldPosition> fields) {
+        this.version = version;
+        this.basePdf = basePdf;
+        this.fontName = fontName;
+        this.fields = fields;
+    }
+
+    /**
+     * Get the version of the template
+     *
+     * @return Version of the template
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Render an invoice with this template
+     *
+     * @param id          ID of the invoice
+     * @param invoice     Invoice data to print
+     * @param out         Stream the PDF is written to
+     * @param compression Compression of the saved PDF
+     * @throws IOException If an error occurs while creating the PDF
+     */
+    public void render(UUID id, InvoiceDataDTO invoice, OutputStream out, CompressParameters compression) throws IOException {
+        try (PDDocument document = Loader.loadPDF(basePdf)) {
+            PDPage page = document.getPage(0);
+            PDFont font = page.getResources().getFont(fontName);
+
+            try (PDPageContentStream contentStream = new PDPageContentStream(document, page, PDPageContentStream.AppendMode.APPEND, true, true)) {
+                for (FieldPosition field : fields) {
+                    contentStream.beginText();
+                    contentStream.setFont(font, field.fontSize());
+                    contentStream.newLineAtOffset(field.x(), field.y());
+                    contentStream.showText(field.field().valueOf(id, invoice));
+                    contentStream.endText();
+                }
+            }
+
+            InvoicePdfRenderer.save(document, id, out, compression);
+        }
+    }
+
+    /**
+     * Start the definition of a template
+     *
+     * @param version Version of the template
+     * @return Builder of the template
+     */
+    public static Builder builder(String version) {
+        return new Builder(version);
+    }
+
+    /**
+     * Builder of an invoice template, the positions are in PDF points from the bottom left corner of an A4 page
+     */
+    public static final class Builder {
+
+        /**
+         * Static text of the template, followed by a variable field if field is not null
+         */
+        private record Line(String text, InvoiceField field, float x, float y, float fontSize) {
+        }
+
+        private final String version;
+
+        private final List<Line> lines = new ArrayList<>();
+
+        private Builder(String version) {
+            this.version = version;
+        }
+
+        /**
+         * Add a static text
+         *
+         * @param text     Text to print
+         * @param x        Horizontal position
+         * @param y        Vertical position
+         * @param fontSize Size of the font
+         * @return This builder
+         */
+        public Builder text(String text, float x, float y, float fontSize) {
+            lines.add(new Line(text, null, x, y, fontSize));
+            return this;
+        }
+
+        /**
+         * Add a static label followed by a variable field
+         *
+         * @param label    Label to print
+         * @param field    Field printed after the label
+         * @param x        Horizontal position of the label
+         * @param y        Vertical position
+         * @param fontSize Size of the font
+         * @return This builder
+         */
+        public Builder field(String label, InvoiceField field, float x, float y, float fontSize) {
+            lines.add(new Line(label, field, x, y, fontSize));
+            return this;
+        }
+
+        /**
+         * Render the static part of the template into its base PDF
+         *
+         * @return Template
+         * @throws IOException If an error occurs while creating the base PDF
+         */
+        public InvoiceTemplate build() throws IOException {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.COURIER);
+            List<FieldPosition> fields = new ArrayList<>();
+            ByteArrayOutputStream basePdf = new ByteArrayOutputStream();
+            COSName fontName;
+
+            try (PDDocument document = new PDDocument()) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    for (Line line : lines) {
+                        contentStream.beginText();
+                        contentStream.setFont(font, line.fontSize());
+                        contentStream.newLineAtOffset(line.x(), line.y());
+                        contentStream.showText(line.text());
+                        contentStream.endText();
+
+                        if (line.field() != null) {
+                            float labelWidth = font.getStringWidth(line.text()) / 1000 * line.fontSize();
+                            fields.add(new FieldPosition(line.field(), line.x() + labelWidth, line.y(), line.fontSize()));
+                        }
+                    }
+                }
+
+                // The font is already registered by the content stream, this returns its name
+                fontName = page.getResources().add(font);
+                document.save(basePdf);
+            }
+
+            return new InvoiceTemplate(version, basePdf.toByteArray(), fontName, List.copyOf(fields));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package fr.polytech.pdf;
+
+import fr.polytech.config.InvoiceTemplateProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the versioned invoice templates. Each template is built on first use, then shared by every invoice.
+ */
+@Component
+public class InvoiceTemplateRegistry {
+
+    /**
+     * Definitions of the templates, by version
+     */
+    private static final Map<String, InvoiceTemplate.Builder> DEFINITIONS = Map.of(
+            "v1", InvoiceTemplate.builder("v1")
+                    .text("Facture", 50, 750, 16)
+                    .field("Numéro de la facture : ", InvoiceField.NUMBER, 50, 700, 12)
+                    .field("Nom du client : ", InvoiceField.CUSTOMER, 50, 680, 12)
+                    .field("Adresse : ", InvoiceField.ADDRESS, 50, 660, 12)
+                    .field("Prestation choisie : Abonnement annuel ", InvoiceField.PLAN, 50, 640, 12)
+                    .field("Montant payé : ", InvoiceField.AMOUNT, 50, 620, 12)
+    );
+
+    @Autowired
+    private InvoiceTemplateProperties properties;
+
+    private final Map<String, InvoiceTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Get the template of a plan
+     *
+     * @param plan Plan of the invoice
+     * @return Template configured for the plan, or the default template
+     * @throws IllegalStateException If the configured version does not exist
+     * @throws UncheckedIOException  If the template could not be built
+     */
+    public InvoiceTemplate getTemplate(String plan) throws IllegalStateException, UncheckedIOException {
+        String version = properties.getPlans().getOrDefault(plan, properties.getDefaultVersion());
+        return templates.computeIfAbsent(version, this::buildTemplate);
+    }
+
+    /**
+     * Build the template of a version
+     *
+     * @param version Version of the template
+     * @return Template
+     */
+    private InvoiceTemplate buildTemplate(String version) {
+        InvoiceTemplate.Builder definition = DEFINITIONS.get(version);
+        if (definition == null) {
+            throw new IllegalStateException("Unknown invoice template " + version);
+        }
+        try {
+            return definition.build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.InvoiceIdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+
+@Repository
+public interface InvoiceIdempotencyKeyRepository extends JpaRepository<InvoiceIdempotencyKey, String> {
+
+    /**
+     * Delete the idempotency keys older than a given date with a single statement
+     *
+     * @param before Keys created before this date are deleted
+     * @return Number of deleted keys
+     */
+    @Modifying
+    @Query("delete from InvoiceIdempotencyKey k where k.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Timestamp before);
+}
@@ -0,0 +1,65 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.InvoiceOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface InvoiceOutboxRepository extends JpaRepository<InvoiceOutbox, UUID> {
+
+    /**
+     * Find the pending uploads which can be attempted and are not claimed by an instance
+     *
+     * @param now      Current date
+     * @param pageable Number of uploads to return
+     * @return IDs of the pending uploads due before the current date, the oldest due first
+     */
+    @Query("select o.id from InvoiceOutbox o where o.nextAttemptAt <= :now " +
+            "and (o.claimedUntil is null or o.claimedUntil < :now) order by o.nextAttemptAt")
+    List<UUID> findDueIds(@Param("now") Timestamp now, Pageable pageable);
+
+    /**
+     * Claim a pending upload, unless another instance claimed it and its claim has not expired
+     *
+     * @param id    ID of the upload
+     * @param now   Current date
+     * @param until End of the claim
+     * @return 1 if the upload was claimed, 0 otherwise
+     */
+    @Modifying
+    @Query("update InvoiceOutbox o set o.claimedUntil = :until " +
+            "where o.id = :id and (o.claimedUntil is null or o.claimedUntil < :now)")
+    int claim(@Param("id") UUID id, @Param("now") Timestamp now, @Param("until") Timestamp until);
+
+    /**
+     * Release the claim of pending uploads with a single statement
+     *
+     * @param ids IDs of the uploads
+     * @return Number of released uploads
+     */
+    @Modifying
+    @Query("update InvoiceOutbox o set o.claimedUntil = null where o.id in :ids")
+    int release(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * Schedule the next attempt of a failed upload and release its claim
+     *
+     * @param id            ID of the upload
+     * @param attempts      Number of failed attempts
+     * @param nextAttemptAt Date after which the upload can be attempted again
+     * @return 1 if the upload was rescheduled, 0 if it was removed meanwhile
+     */
+    @Modifying
+    @Query("update InvoiceOutbox o set o.attempts = :attempts, o.nextAttemptAt = :nextAttemptAt, o.claimedUntil = null " +
+            "where o.id = :id")
+    int reschedule(@Param("id") UUID id, @Param("attempts") int attempts, @Param("nextAttemptAt") Timestamp nextAttemptAt);
+}
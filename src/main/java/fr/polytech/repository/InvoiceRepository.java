@@ -1,11 +1,158 @@
 package fr.polytech.repository;
 
 import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.InvoiceSummary;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Date;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface InvoiceRepository extends JpaRepository<Invoice, UUID> {
+
+    /**
+     * Find the invoices still stored in their own bucket, ordered by ID
+     *
+     * @param after    Only invoices with an ID greater than this one are returned
+     * @param pageable Size of the batch
+     * @return Invoices whose PDF key is not prefixed by a year and month
+     */
+    @Query("select i from Invoice i where i.pdfUrl not like '%/%' and i.id > :after order by i.id")
+    List<Invoice> findLegacyLayoutAfter(@Param("after") UUID after, Pageable pageable);
+
+    /**
+     * Update the status of several invoices with a single statement
+     *
+     * @param ids    IDs of the invoices
+     * @param status New status
+     * @return Number of updated invoices
+     */
+    @Modifying
+    @Query("update Invoice i set i.status = :status where i.id in :ids")
+    int updateStatus(@Param("ids") Collection<UUID> ids, @Param("status") InvoiceStatus status);
+
+    /**
+     * Find the first page of invoices, ordered by creation date then ID
+     *
+     * @param pageable Size of the page
+     * @return Summaries of the first invoices
+     */
+    @Query("select i.id as id, i.creationDate as creationDate, i.pdfUrl as pdfUrl, i.status as status from Invoice i " +
+            "order by i.creationDate, i.id")
+    List<InvoiceSummary> findFirstPage(Pageable pageable);
+
+    /**
+     * Find the page of invoices following a given invoice, ordered by creation date then ID
+     *
+     * @param creationDate Creation date of the last invoice of the previous page
+     * @param id           ID of the last invoice of the previous page
+     * @param pageable     Size of the page
+     * @return Summaries of the invoices following the given one
+     */
+    @Query("select i.id as id, i.creationDate as creationDate, i.pdfUrl as pdfUrl, i.status as status from Invoice i " +
+            "where i.creationDate > :creationDate or (i.creationDate = :creationDate and i.id > :id) " +
+            "order by i.creationDate, i.id")
+    List<InvoiceSummary> findPageAfter(@Param("creationDate") Date creationDate, @Param("id") UUID id, Pageable pageable);
+
+    /**
+     * Find the first page of invoices created within a period, ordered by creation date then ID
+     *
+     * @param from     First day of the period
+     * @param to       Last day of the period
+     * @param pageable Size of the page
+     * @return Summaries of the first invoices of the period
+     */
+    @Query("select i.id as id, i.creationDate as creationDate, i.pdfUrl as pdfUrl, i.status as status from Invoice i " +
+            "where i.creationDate between :from and :to " +
+            "order by i.creationDate, i.id")
+    List<InvoiceSummary> findFirstPageBetween(@Param("from") Date from, @Param("to") Date to, Pageable pageable);
+
+    /**
+     * Find the page of invoices created within a period following a given invoice, ordered by creation date then ID
+     *
+     * @param from         First day of the period
+     * @param to           Last day of the period
+     * @param creationDate Creation date of the last invoice of the previous page
+     * @param id           ID of the last invoice of the previous page
+     * @param pageable     Size of the page
+     * @return Summaries of the invoices of the period following the given one
+     */
+    @Query("select i.id as id, i.creationDate as creationDate, i.pdfUrl as pdfUrl, i.status as status from Invoice i " +
+            "where i.creationDate between :from and :to " +
+            "and (i.creationDate > :creationDate or (i.creationDate = :creationDate and i.id > :id)) " +
+            "order by i.creationDate, i.id")
+    List<InvoiceSummary> findPageBetweenAfter(@Param("from") Date from, @Param("to") Date to,
+                                              @Param("creationDate") Date creationDate, @Param("id") UUID id,
+                                              Pageable pageable);
+
+    /**
+     * Count the completed invoices created within a period, the invoices without status were all completed
+     *
+     * @param from First day of the period
+     * @param to   Last day of the period
+     * @return Number of completed invoices of the period
+     */
+    @Query("select count(i) from Invoice i where i.creationDate between :from and :to " +
+            "and (i.status is null or i.status = fr.polytech.model.InvoiceStatus.COMPLETED)")
+    long countCompletedBetween(@Param("from") Date from, @Param("to") Date to);
+
+    /**
+     * Find the keys of the PDFs stored in the shared bucket, in byte order like the Minio listings
+     *
+     * @param after Only keys greater than this one are returned
+     * @param limit Number of keys to return
+     * @return Keys of the PDFs, in byte order
+     */
+    @Query(value = "select pdf_url from public.invoice where pdf_url like '%/%' and pdf_url collate \"C\" > :after " +
+            "order by pdf_url collate \"C\" limit :limit", nativeQuery = true)
+    List<String> findSharedBucketKeysAfter(@Param("after") String after, @Param("limit") int limit);
+
+    /**
+     * Find which of the given keys are the PDF of at least one invoice
+     *
+     * @param keys Keys of PDFs stored in the shared bucket
+     * @return Keys referenced by an invoice
+     */
+    @Query(value = "select distinct pdf_url from public.invoice where pdf_url collate \"C\" in (:keys)", nativeQuery = true)
+    List<String> findReferencedPdfUrls(@Param("keys") Collection<String> keys);
+
+    /**
+     * Take a transaction level advisory lock in shared mode, waiting for the exclusive holder if any
+     *
+     * @param lockId Key of the lock
+     * @return Always 1
+     */
+    @Query(value = "select 1 from (select pg_advisory_xact_lock_shared(:lockId)) as l", nativeQuery = true)
+    int lockShared(@Param("lockId") long lockId);
+
+    /**
+     * Try to take a transaction level advisory lock in exclusive mode, without waiting
+     *
+     * @param lockId Key of the lock
+     * @return True if the lock was taken
+     */
+    @Query(value = "select pg_try_advisory_xact_lock(:lockId)", nativeQuery = true)
+    boolean tryLockExclusive(@Param("lockId") long lockId);
+
+    /**
+     * Stream every invoice, ordered by creation date then ID. The rows are fetched from the database by chunks,
+     * the stream must be consumed and closed within a transaction.
+     *
+     * @return Stream of all invoices
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select i from Invoice i order by i.creationDate, i.id")
+    Stream<Invoice> streamAll();
 }
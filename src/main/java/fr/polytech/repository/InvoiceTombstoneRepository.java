@@ -0,0 +1,21 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.InvoiceTombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface InvoiceTombstoneRepository extends JpaRepository<InvoiceTombstone, UUID> {
+
+    /**
+     * Find the oldest tombstones
+     *
+     * @param pageable Number of tombstones to return
+     * @return Tombstones, the oldest first
+     */
+    List<InvoiceTombstone> findAllByOrderByDeletedAtAsc(Pageable pageable);
+}
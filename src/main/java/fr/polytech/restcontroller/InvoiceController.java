@@ -3,17 +3,47 @@ package fr.polytech.restcontroller;
 import fr.polytech.annotation.IsAdmin;
 import fr.polytech.annotation.IsRecruiter;
 import fr.polytech.annotation.IsRecruiterOrAdmin;
+import fr.polytech.annotation.RateLimited;
+import fr.polytech.exception.IdempotencyKeyReusedException;
+import fr.polytech.exception.TooManyRequestsException;
 import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceBatchResultDTO;
 import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoicePageDTO;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.InvoiceStatusDTO;
+import fr.polytech.model.ObjectLocation;
+import fr.polytech.service.InvoiceBatchService;
+import fr.polytech.service.InvoiceExportService;
+import fr.polytech.service.InvoiceIdempotencyService;
 import fr.polytech.service.InvoiceService;
+import fr.polytech.service.InvoiceUrlService;
+import fr.polytech.service.MinioService;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.MinioException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.Produces;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.sql.Date;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,38 +51,243 @@ import java.util.UUID;
 @RequestMapping("/api/v1/invoice")
 public class InvoiceController {
 
+    /**
+     * Size of the buffer used to stream a PDF to the client
+     */
+    private static final int STREAMING_BUFFER_SIZE = 8 * 1024;
+
+    private static final String ZIP_MEDIA_TYPE = "application/zip";
+
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     @Autowired
     private InvoiceService invoiceService;
 
+    @Autowired
+    private InvoiceBatchService invoiceBatchService;
+
+    @Autowired
+    private InvoiceExportService invoiceExportService;
+
+    @Autowired
+    private InvoiceIdempotencyService invoiceIdempotencyService;
+
+    @Autowired
+    private InvoiceUrlService invoiceUrlService;
+
+    @Autowired
+    private MinioService minioService;
+
     /**
-     * Create a new invoice
+     * Create a new invoice, its PDF is generated in the background. A synchronous request waits for the PDF, up to
+     * invoice.create.sync-timeout-ms, so that the URL and the PDF of the invoice can be read right after.
      *
-     * @param invoice Invoice to create
-     * @return Created invoice
+     * @param invoice        Invoice to create
+     * @param async          True to answer 202 with the pending invoice right away, false to wait for its PDF
+     * @param idempotencyKey Key identifying the request, a retry with the same key gets the same invoice back
+     * @param principal      Authenticated user, the idempotency keys are scoped by user
+     * @return Created invoice, 202 if its PDF is not generated yet, 429 if too many invoices are pending, or 422 if
+     * the idempotency key was already used with a different request
      */
     @PostMapping("/")
     @IsRecruiter
+    @RateLimited("create")
+    @Consumes(MediaType.APPLICATION_JSON_VALUE)
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Invoice> createInvoice(@RequestBody InvoiceDataDTO invoice,
+                                                 @RequestParam(value = "async", defaultValue = "false") boolean async,
+                                                 @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                 Principal principal) {
+        try {
+            Invoice createdInvoice = idempotencyKey == null
+                    ? invoiceService.createInvoice(invoice)
+                    : invoiceIdempotencyService.createInvoice(principal.getName(), idempotencyKey, invoice);
+            if (!async) {
+                createdInvoice = invoiceService.awaitGeneration(createdInvoice);
+                if (createdInvoice.getStatus() != InvoiceStatus.PENDING) {
+                    return ResponseEntity.ok(createdInvoice);
+                }
+            }
+            return ResponseEntity.accepted().body(createdInvoice);
+        } catch (TooManyRequestsException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (IdempotencyKeyReusedException e) {
+            return ResponseEntity.unprocessableEntity().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Create a batch of invoices
+     *
+     * @param invoices Invoices to create
+     * @return Result of every invoice, in the order of the batch, 400 if the batch is empty or too large, or 429 if too
+     * many invoices are pending
+     */
+    @PostMapping("/batch")
+    @IsRecruiter
+    @RateLimited("batch")
     @Consumes(MediaType.APPLICATION_JSON_VALUE)
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Invoice> createInvoice(@RequestBody InvoiceDataDTO invoice) {
+    public ResponseEntity<List<InvoiceBatchResultDTO>> createInvoices(@RequestBody List<InvoiceDataDTO> invoices) {
+        try {
+            return ResponseEntity.ok(invoiceBatchService.createInvoices(invoices));
+        } catch (TooManyRequestsException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Get the generation status of the invoice with the specified ID
+     *
+     * @param id ID of the invoice
+     * @return Status of the invoice or 404 if not found or 400 if error
+     */
+    @GetMapping("/{id}/status")
+    @IsRecruiterOrAdmin
+    @RateLimited("status")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InvoiceStatusDTO> getInvoiceStatus(@PathVariable("id") UUID id) {
+        try {
+            return ResponseEntity.ok(invoiceService.getInvoiceStatus(id));
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Get a page of invoices, ordered by creation date then ID
+     *
+     * @param cursor Cursor returned with the previous page, omitted for the first page
+     * @param limit  Maximum number of invoices in the page
+     * @return Page of invoices with the cursor of the next page, or 400 if the cursor is invalid
+     */
+    @GetMapping(value = "/", produces = MediaType.APPLICATION_JSON_VALUE)
+    @IsAdmin
+    @RateLimited("list")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InvoicePageDTO> getAllInvoices(@RequestParam(value = "cursor", required = false) String cursor,
+                                                         @RequestParam(value = "limit", defaultValue = "100") int limit) {
         try {
-            return ResponseEntity.ok(invoiceService.createInvoice(invoice));
+            return ResponseEntity.ok(invoiceService.getInvoicePage(cursor, limit));
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
     /**
-     * Get all invoices
+     * Get a page of the invoices created within a period, ordered by creation date then ID
      *
-     * @return List of all invoices
+     * @param from   First day of the period, included
+     * @param to     Last day of the period, included
+     * @param cursor Cursor returned with the previous page, omitted for the first page
+     * @param limit  Maximum number of invoices in the page
+     * @return Page of invoices with the cursor of the next page, or 400 if the period or the cursor is invalid
      */
-    @GetMapping("/")
+    @GetMapping(params = {"from", "to"})
     @IsAdmin
+    @RateLimited("list")
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Invoice>> getAllInvoices() {
+    public ResponseEntity<InvoicePageDTO> getInvoicesBetween(@RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                             @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                             @RequestParam(value = "cursor", required = false) String cursor,
+                                                             @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (to.isBefore(from)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(invoiceService.getInvoicePageBetween(Date.valueOf(from), Date.valueOf(to), cursor, limit));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Export all invoices as newline delimited JSON, streamed as they are read from the database
+     *
+     * @return Stream of all invoices, one JSON object per line
+     */
+    @GetMapping(value = "/", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @IsAdmin
+    @RateLimited("export")
+    @Produces(MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportAllInvoices() {
+        StreamingResponseBody body = invoiceService::writeInvoicesAsNdjson;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Export the PDFs of the invoices created within a period, streamed as they are fetched from Minio
+     *
+     * @param from   First day of the period, included
+     * @param to     Last day of the period, included
+     * @param format zip for an archive with one PDF per invoice, pdf for a single merged PDF
+     * @return Archive or merged PDF of the invoices, or 400 if the period or the format is invalid
+     */
+    @GetMapping("/export")
+    @IsAdmin
+    @RateLimited("export")
+    @Produces({ZIP_MEDIA_TYPE, MediaType.APPLICATION_PDF_VALUE})
+    public ResponseEntity<StreamingResponseBody> exportInvoices(@RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                @RequestParam(value = "format", defaultValue = "zip") String format) {
+        if (to.isBefore(from)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            Date fromDate = Date.valueOf(from);
+            Date toDate = Date.valueOf(to);
+            String filename = "invoices-" + from + "-" + to + "." + format;
+
+            StreamingResponseBody body;
+            MediaType contentType;
+            if ("zip".equals(format)) {
+                body = out -> invoiceExportService.writeZip(fromDate, toDate, out);
+                contentType = MediaType.parseMediaType(ZIP_MEDIA_TYPE);
+            } else if ("pdf".equals(format)) {
+                invoiceExportService.checkMergeable(fromDate, toDate);
+                body = out -> invoiceExportService.writeMergedPdf(fromDate, toDate, out);
+                contentType = MediaType.APPLICATION_PDF;
+            } else {
+                return ResponseEntity.badRequest().build();
+            }
+
+            return ResponseEntity.ok()
+                    .contentType(contentType)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                    .body(body);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Store the export of the invoices created within a period in Minio, for a download after the request
+     *
+     * @param from   First day of the period, included
+     * @param to     Last day of the period, included
+     * @param format zip for an archive with one PDF per invoice, pdf for a single merged PDF
+     * @return Presigned URL of the stored export, or 400 if the period or the format is invalid
+     */
+    @PostMapping("/export")
+    @IsAdmin
+    @RateLimited("export")
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> storeExport(@RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                              @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                              @RequestParam(value = "format", defaultValue = "zip") String format) {
+        if (to.isBefore(from) || !("zip".equals(format) || "pdf".equals(format))) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            return ResponseEntity.ok(invoiceService.getAllInvoices());
+            return ResponseEntity.ok(invoiceExportService.storeExport(Date.valueOf(from), Date.valueOf(to), "pdf".equals(format)));
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
@@ -66,6 +301,7 @@ public class InvoiceController {
      */
     @GetMapping("/{id}")
     @IsRecruiterOrAdmin
+    @RateLimited("get")
     @Produces(MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Invoice> getInvoiceById(@PathVariable("id") UUID id) {
         try {
@@ -83,17 +319,115 @@ public class InvoiceController {
      */
     @GetMapping("/url/{id}")
     @IsRecruiterOrAdmin
+    @RateLimited("url")
     @Produces(MediaType.TEXT_PLAIN_VALUE)
     public ResponseEntity<String> getInvoiceUrlById(@PathVariable("id") UUID id) {
         try {
-            return ResponseEntity.ok(invoiceService.getInvoiceUrl(id));
+            return ResponseEntity.ok(invoiceUrlService.getInvoiceUrl(id));
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Download the PDF of the invoice with the specified ID. The PDF is streamed from Minio with a fixed size buffer,
+     * single byte ranges are supported and the conditional headers are answered with 304 when the PDF did not change.
+     *
+     * @param id      ID of the invoice
+     * @param headers Request headers, for Range, If-Range, If-None-Match and If-Modified-Since
+     * @return PDF of the invoice, 206 for a range, 304 if not modified, 416 if the range is invalid, 404 if not found or 400 if error
+     */
+    @GetMapping("/{id}/pdf")
+    @IsRecruiterOrAdmin
+    @RateLimited("pdf")
+    @Produces(MediaType.APPLICATION_PDF_VALUE)
+    public ResponseEntity<StreamingResponseBody> downloadInvoicePdf(@PathVariable("id") UUID id, @RequestHeader HttpHeaders headers) {
+        try {
+            ObjectLocation location = invoiceService.getInvoicePdfLocation(id);
+            StatObjectResponse stat = minioService.statObject(location.bucket(), location.object());
+
+            String etag = "\"" + stat.etag() + "\"";
+            long lastModified = stat.lastModified().toInstant().toEpochMilli();
+            long size = stat.size();
+
+            if (isNotModified(headers, etag, lastModified)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .lastModified(lastModified)
+                        .build();
+            }
+
+            long start = 0;
+            long length = size;
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+
+            List<HttpRange> ranges = headers.getRange();
+            String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+            if (ranges.size() == 1 && (ifRange == null || ifRange.equals(etag))) {
+                HttpRange range = ranges.get(0);
+                start = range.getRangeStart(size);
+                length = range.getRangeEnd(size) - start + 1;
+                response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+            }
+
+            long offset = start;
+            long count = length;
+            StreamingResponseBody body = out -> {
+                try (InputStream in = minioService.getObject(location.bucket(), location.object(), offset, count)) {
+                    byte[] buffer = new byte[STREAMING_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+                    throw new IOException(e);
+                }
+            };
+
+            return response
+                    .contentType(MediaType.APPLICATION_PDF)
+                    .contentLength(length)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .eTag(etag)
+                    .lastModified(lastModified)
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .body(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).build();
         } catch (NotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code()) || "NoSuchBucket".equals(e.errorResponse().code())) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
+    /**
+     * Check the conditional headers of a request against the current version of a PDF
+     *
+     * @param headers      Request headers
+     * @param etag         ETag of the PDF
+     * @param lastModified Last modification date of the PDF, in milliseconds
+     * @return True if the client already has the current version of the PDF
+     */
+    private boolean isNotModified(HttpHeaders headers, String etag, long lastModified) {
+        List<String> ifNoneMatch = headers.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            return ifNoneMatch.contains(etag) || ifNoneMatch.contains("*");
+        }
+
+        // HTTP dates have a precision of one second
+        long ifModifiedSince = headers.getIfModifiedSince();
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
     /**
      * Delete the invoice with the specified ID
      *
@@ -102,6 +436,7 @@ public class InvoiceController {
      */
     @DeleteMapping("/{id}")
     @IsRecruiterOrAdmin
+    @RateLimited("delete")
     public ResponseEntity<Void> deleteInvoice(@PathVariable("id") UUID id) {
         try {
             invoiceService.deleteInvoice(id);
@@ -0,0 +1,317 @@
+package fr.polytech.service;
+
+import fr.polytech.exception.TooManyRequestsException;
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceBatchResultDTO;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoiceOutbox;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.StoredPdf;
+import fr.polytech.pdf.InvoicePdfRenderer;
+import fr.polytech.repository.InvoiceOutboxRepository;
+import fr.polytech.repository.InvoiceRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.minio.errors.MinioException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service creating invoices in bulk. The invoices and their pending uploads are inserted in one JDBC batch, their PDFs
+ * are rendered on a CPU bound pool and uploaded on an I/O bound pool, then they are completed by JDBC batches.
+ * The uploads are claimed by this instance until the batch ends, those which failed stay in the outbox and are
+ * retried by the relay.
+ */
+@Service
+public class InvoiceBatchService {
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceBatchService.class);
+
+    @Autowired
+    private InvoiceService invoiceService;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private InvoiceOutboxRepository invoiceOutboxRepository;
+
+    @Autowired
+    private InvoiceOutboxRelay invoiceOutboxRelay;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Autowired
+    private PdfBufferPool pdfBufferPool;
+
+    @Autowired
+    private InvoicePdfRenderer invoicePdfRenderer;
+
+    @Autowired
+    private ThreadPoolTaskExecutor invoiceRenderExecutor;
+
+    @Autowired
+    private ThreadPoolTaskExecutor invoiceUploadExecutor;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private InvoiceMetrics invoiceMetrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${invoice.batch.max-size:10000}")
+    private int maxBatchSize;
+
+    /**
+     * Maximum number of rendered PDFs waiting for or being uploaded, bounds the memory used by a batch
+     */
+    @Value("${invoice.batch.max-in-flight:256}")
+    private int maxInFlight;
+
+    /**
+     * Number of PDFs being rendered or uploaded by all the batches
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Expose the number of PDFs being rendered or uploaded
+     */
+    @PostConstruct
+    public void initGauge() {
+        Gauge.builder("invoice.batch.in-flight", inFlight, AtomicInteger::get)
+                .description("PDFs of the batches being rendered or uploaded")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Create a batch of invoices
+     *
+     * @param invoices Invoices to create
+     * @return Result of every invoice, in the order of the batch
+     * @throws IllegalArgumentException If the batch is empty or too large
+     * @throws TooManyRequestsException If the outbox backlog cannot take the valid invoices of the batch
+     */
+    public List<InvoiceBatchResultDTO> createInvoices(List<InvoiceDataDTO> invoices) throws IllegalArgumentException, TooManyRequestsException {
+        if (invoices == null || invoices.isEmpty() || invoices.size() > maxBatchSize) {
+            throw new IllegalArgumentException("A batch must contain between 1 and " + maxBatchSize + " invoices");
+        }
+
+        InvoiceBatchResultDTO[] results = new InvoiceBatchResultDTO[invoices.size()];
+        List<Integer> validIndexes = new ArrayList<>();
+        List<Invoice> invoicesToStore = new ArrayList<>();
+        List<InvoiceOutbox> outboxToStore = new ArrayList<>();
+
+        // The pending uploads are claimed by this instance, so that the relays do not process them meanwhile
+        Timestamp claimEnd = invoiceOutboxRelay.getClaimEnd();
+
+        for (int i = 0; i < invoices.size(); i++) {
+            try {
+                invoiceService.validateInvoiceData(invoices.get(i));
+            } catch (RuntimeException e) {
+                results[i] = new InvoiceBatchResultDTO(i, null, e.getMessage());
+                continue;
+            }
+
+            Invoice invoiceToStore = new Invoice();
+            invoiceToStore.setId(UUID.randomUUID());
+            invoiceToStore.setCreationDate(invoices.get(i).getCreationDate());
+            invoiceToStore.setPdfUrl(invoiceStorage.getObjectKey(invoiceToStore.getId(), invoiceToStore.getCreationDate()));
+            invoiceToStore.setStatus(InvoiceStatus.PENDING);
+
+            validIndexes.add(i);
+            invoicesToStore.add(invoiceToStore);
+            InvoiceOutbox outbox = new InvoiceOutbox(invoiceToStore.getId(), invoiceToStore.getPdfUrl(), invoices.get(i));
+            outbox.setClaimedUntil(claimEnd);
+            outboxToStore.add(outbox);
+        }
+
+        if (invoicesToStore.isEmpty()) {
+            return List.of(results);
+        }
+
+        // Same backpressure as a single creation, sized by the batch
+        if (invoiceOutboxRelay.isBacklogFull(invoicesToStore.size())) {
+            throw new TooManyRequestsException("Too many invoices are waiting to be generated to accept " + invoicesToStore.size() + " more");
+        }
+
+        // The invoices and their pending uploads are inserted by batched inserts in the same transaction
+        List<Invoice> storedInvoices = transactionTemplate.execute(status -> {
+            List<Invoice> savedInvoices = invoiceRepository.saveAll(invoicesToStore);
+            invoiceOutboxRepository.saveAll(outboxToStore);
+            return savedInvoices;
+        });
+        invoiceOutboxRelay.recordPending(storedInvoices.size());
+
+        // The PDFs are uploaded outside any transaction, only their recording takes the content lock
+        int completed;
+        try {
+            completed = generate(storedInvoices, invoices, validIndexes, results);
+        } finally {
+            // The uploads which failed are released for the relay, the completed ones were removed from the outbox
+            invoiceOutboxRelay.release(storedInvoices.stream()
+                    .filter(storedInvoice -> storedInvoice.getStatus() == InvoiceStatus.PENDING)
+                    .map(Invoice::getId)
+                    .toList());
+        }
+
+        logger.info("Generated " + completed + " of " + invoices.size() + " invoices");
+
+        return List.of(results);
+    }
+
+    /**
+     * Render and upload the PDFs of the stored invoices, then complete the invoices whose PDF was uploaded
+     *
+     * @param storedInvoices Stored invoices
+     * @param invoices       Invoice data of the whole batch
+     * @param validIndexes   Index in the batch of each stored invoice
+     * @param results        Results of the batch, filled for the stored invoices
+     * @return Number of completed invoices
+     */
+    private int generate(List<Invoice> storedInvoices, List<InvoiceDataDTO> invoices, List<Integer> validIndexes,
+                         InvoiceBatchResultDTO[] results) {
+        Semaphore window = new Semaphore(maxInFlight);
+        List<CompletableFuture<StoredPdf>> uploads = new ArrayList<>(storedInvoices.size());
+
+        for (int i = 0; i < storedInvoices.size(); i++) {
+            Invoice storedInvoice = storedInvoices.get(i);
+            InvoiceDataDTO invoice = invoices.get(validIndexes.get(i));
+
+            window.acquireUninterruptibly();
+            inFlight.incrementAndGet();
+            uploads.add(CompletableFuture
+                    .supplyAsync(() -> render(storedInvoice, invoice), invoiceRenderExecutor)
+                    .thenApplyAsync(buffer -> upload(storedInvoice, buffer), invoiceUploadExecutor)
+                    .whenComplete((result, e) -> {
+                        inFlight.decrementAndGet();
+                        window.release();
+                    }));
+        }
+
+        Map<UUID, StoredPdf> storedPdfs = new LinkedHashMap<>();
+
+        for (int i = 0; i < storedInvoices.size(); i++) {
+            Invoice storedInvoice = storedInvoices.get(i);
+            int index = validIndexes.get(i);
+
+            try {
+                StoredPdf pdf = uploads.get(i).join();
+                storedInvoice.setPdfUrl(pdf.objectKey());
+                storedInvoice.setContentHash(pdf.contentHash());
+                storedInvoice.setContentSize(pdf.contentSize());
+                storedInvoice.setStatus(InvoiceStatus.COMPLETED);
+                storedPdfs.put(storedInvoice.getId(), pdf);
+            } catch (CompletionException e) {
+                // The invoice stays pending, its upload is retried by the relay
+                logger.warn("Error while generating invoice " + storedInvoice.getId() + ", retrying in the background", e.getCause());
+            }
+            results[index] = new InvoiceBatchResultDTO(index, storedInvoice, null);
+        }
+
+        // The invoices are updated by JDBC batches and the completed uploads removed from the outbox by one statement
+        invoiceOutboxRelay.completeAll(storedPdfs);
+
+        Map<UUID, CompletableFuture<Boolean>> checks = new LinkedHashMap<>();
+        storedPdfs.forEach((id, pdf) -> checks.put(id, CompletableFuture.supplyAsync(() -> isStored(pdf), invoiceUploadExecutor)));
+
+        // The PDFs removed by the reaper before their invoices were committed are uploaded again by the relay
+        Map<UUID, InvoiceOutbox> removed = new LinkedHashMap<>();
+        for (int i = 0; i < storedInvoices.size(); i++) {
+            Invoice storedInvoice = storedInvoices.get(i);
+            CompletableFuture<Boolean> check = checks.get(storedInvoice.getId());
+            if (check == null || check.exceptionally(e -> false).join()) {
+                continue;
+            }
+
+            logger.warn("PDF of invoice " + storedInvoice.getId() + " not found after the invoice was committed, uploading it again in the background");
+            storedInvoice.setStatus(InvoiceStatus.PENDING);
+            removed.put(storedInvoice.getId(), new InvoiceOutbox(storedInvoice.getId(),
+                    invoiceStorage.getObjectKey(storedInvoice.getId(), storedInvoice.getCreationDate()),
+                    invoices.get(validIndexes.get(i))));
+        }
+        invoiceOutboxRelay.requeue(removed);
+
+        return storedPdfs.size() - removed.size();
+    }
+
+    /**
+     * Check whether the PDF of an invoice is still stored once the invoice is committed
+     *
+     * @param pdf Stored PDF
+     * @return True if the PDF is stored
+     */
+    private boolean isStored(StoredPdf pdf) {
+        try {
+            return invoiceStorage.isStored(pdf);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Render the PDF of an invoice in a pooled buffer
+     *
+     * @param storedInvoice Stored invoice
+     * @param invoice       Invoice data to print
+     * @return Buffer holding the PDF, released once uploaded
+     */
+    private PdfBuffer render(Invoice storedInvoice, InvoiceDataDTO invoice) {
+        PdfBuffer buffer = pdfBufferPool.acquire();
+        Timer.Sample render = invoiceMetrics.start();
+        try {
+            invoicePdfRenderer.render(storedInvoice.getId(), invoice, buffer);
+            invoiceMetrics.recordPdfSize(buffer.size());
+            return buffer;
+        } catch (IOException e) {
+            pdfBufferPool.release(buffer);
+            throw new UncheckedIOException(e);
+        } finally {
+            invoiceMetrics.stop(render, InvoiceMetrics.STAGE_RENDER);
+        }
+    }
+
+    /**
+     * Upload the PDF of an invoice to Minio and release its buffer
+     *
+     * @param storedInvoice Stored invoice, holding the key of the PDF
+     * @param buffer        Buffer holding the PDF
+     * @return Stored PDF
+     */
+    private StoredPdf upload(Invoice storedInvoice, PdfBuffer buffer) {
+        Timer.Sample upload = invoiceMetrics.start();
+        try {
+            return invoiceStorage.storePdf(storedInvoice.getPdfUrl(), buffer);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException(e);
+        } finally {
+            invoiceMetrics.stop(upload, InvoiceMetrics.STAGE_UPLOAD);
+            pdfBufferPool.release(buffer);
+        }
+    }
+}
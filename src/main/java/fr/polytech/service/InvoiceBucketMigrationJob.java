@@ -0,0 +1,105 @@
+package fr.polytech.service;
+
+import fr.polytech.model.Invoice;
+import fr.polytech.repository.InvoiceRepository;
+import io.minio.errors.MinioException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Job moving the invoices stored in one bucket per invoice into the shared invoice bucket, batch by batch.
+ */
+@Component
+@ConditionalOnProperty(name = "invoice.minio.migration.enabled", havingValue = "true")
+public class InvoiceBucketMigrationJob {
+
+    private static final UUID FIRST_ID = new UUID(0, 0);
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceBucketMigrationJob.class);
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private InvoiceUrlService invoiceUrlService;
+
+    @Autowired
+    private InvoiceCache invoiceCache;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Value("${invoice.minio.migration.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * ID of the last invoice handled, the next batch starts after it so that failing invoices do not block the job
+     */
+    private UUID cursor = FIRST_ID;
+
+    /**
+     * Migrate the next batch of invoices. Once every invoice has been seen, the job starts over to retry the failed ones.
+     */
+    @Scheduled(fixedDelayString = "${invoice.minio.migration.delay-ms:60000}")
+    public void migrateBatch() {
+        List<Invoice> invoices = invoiceRepository.findLegacyLayoutAfter(cursor, PageRequest.of(0, batchSize));
+
+        if (invoices.isEmpty()) {
+            cursor = FIRST_ID;
+            return;
+        }
+
+        int migrated = 0;
+        for (Invoice invoice : invoices) {
+            try {
+                migrate(invoice);
+                migrated++;
+            } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+                logger.error("Could not migrate invoice " + invoice.getId() + " to the shared bucket", e);
+            }
+            cursor = invoice.getId();
+        }
+
+        logger.info("Migrated " + migrated + " of " + invoices.size() + " invoices to the shared bucket");
+    }
+
+    /**
+     * Copy the PDF of an invoice to the shared bucket, point the invoice to it, then drop the old bucket.
+     *
+     * @param invoice Invoice to migrate
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    private void migrate(Invoice invoice) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String legacyBucket = invoice.getId().toString();
+        String legacyObject = invoice.getPdfUrl();
+        String objectKey = invoiceStorage.getObjectKey(invoice.getId(), invoice.getCreationDate());
+
+        minioService.copyObject(legacyBucket, legacyObject, invoiceStorage.getInvoiceBucket(), objectKey);
+
+        invoice.setPdfUrl(objectKey);
+        invoiceRepository.save(invoice);
+        invoiceCache.invalidate(invoice.getId());
+        invoiceUrlService.evict(invoice.getId());
+
+        minioService.deleteFileFromPrivateBucket(legacyBucket, legacyObject);
+        minioService.removeBucket(legacyBucket);
+    }
+}
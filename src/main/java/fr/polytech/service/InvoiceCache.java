@@ -0,0 +1,105 @@
+package fr.polytech.service;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.polytech.model.Invoice;
+import fr.polytech.repository.InvoiceRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Read-through cache of the invoices. Concurrent misses for the same ID share a single query, and the invoices are
+ * evicted whenever this instance deletes them or changes their status or PDF key. The entries also expire after a
+ * short time, bounding how stale an invoice changed by another instance can be. The queries run on a dedicated pool
+ * rather than inside the map of the cache, where a blocked virtual thread would stay pinned to its carrier.
+ */
+@Component
+public class InvoiceCache {
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ThreadPoolTaskExecutor invoiceCacheLoadExecutor;
+
+    @Value("${invoice.cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${invoice.cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private AsyncLoadingCache<UUID, Invoice> invoices;
+
+    /**
+     * Initialize the cache and expose its statistics, including the hit ratio and the load duration
+     */
+    @PostConstruct
+    public void initInvoiceCache() {
+        invoices = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .executor(invoiceCacheLoadExecutor)
+                .buildAsync(id -> invoiceRepository.findById(id).orElse(null));
+
+        CaffeineCacheMetrics.monitor(meterRegistry, invoices.synchronous(), "invoice.entities");
+    }
+
+    /**
+     * Get an invoice, from the cache or from the database. Unknown invoices are not cached.
+     *
+     * @param id ID of the invoice
+     * @return Invoice, or null if it does not exist
+     */
+    public Invoice get(UUID id) {
+        try {
+            return invoices.get(id).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cache an invoice which has just been stored, it is usually read right after its creation
+     *
+     * @param invoice Stored invoice
+     */
+    public void put(Invoice invoice) {
+        invoices.put(invoice.getId(), CompletableFuture.completedFuture(invoice));
+    }
+
+    /**
+     * Evict an invoice which was deleted or changed
+     *
+     * @param id ID of the invoice
+     */
+    public void invalidate(UUID id) {
+        invoices.synchronous().invalidate(id);
+    }
+
+    /**
+     * Evict several invoices which were deleted or changed
+     *
+     * @param ids IDs of the invoices
+     */
+    public void invalidateAll(Collection<UUID> ids) {
+        invoices.synchronous().invalidateAll(ids);
+    }
+}
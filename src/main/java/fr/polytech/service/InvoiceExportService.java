@@ -0,0 +1,362 @@
+package fr.polytech.service;
+
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.InvoiceSummary;
+import fr.polytech.model.ObjectLocation;
+import fr.polytech.repository.InvoiceRepository;
+import io.minio.errors.MinioException;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Date;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Service exporting the PDFs of the invoices of a period, as a ZIP archive or as a single merged PDF.
+ * The invoices are read from the database page by page, and the PDFs are opened in Minio a few at a time ahead of
+ * the one being written. The PDFs are read from Minio as they are written, so the memory used does not depend on
+ * the number nor the size of the exported invoices. An export can also be stored in Minio and downloaded later, it is
+ * then uploaded in parts as it is written, its size being unknown until the last invoice.
+ */
+@Service
+public class InvoiceExportService {
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceExportService.class);
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private ThreadPoolTaskExecutor invoiceExportExecutor;
+
+    @Autowired
+    private ThreadPoolTaskExecutor streamingExecutor;
+
+    /**
+     * Number of PDFs fetched ahead of the one being written
+     */
+    @Value("${invoice.export.prefetch:16}")
+    private int prefetch;
+
+    @Value("${invoice.export.page-size:500}")
+    private int pageSize;
+
+    @Value("${invoice.export.max-merged-invoices:10000}")
+    private long maxMergedInvoices;
+
+    /**
+     * Bucket of the stored exports, separate from the invoice bucket which is reconciled with the invoices
+     */
+    @Value("${invoice.export.bucket:invoice-exports}")
+    private String exportBucket;
+
+    /**
+     * Size of the pipe between the writer of a stored export and its upload
+     */
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * PDF of an exported invoice
+     *
+     * @param invoice Exported invoice
+     * @param content Content of its PDF, read from Minio as it is consumed and closed once written
+     */
+    private record ExportedPdf(InvoiceSummary invoice, InputStream content) {
+    }
+
+    /**
+     * Consumer of the exported PDFs, in the order of the invoices
+     */
+    @FunctionalInterface
+    private interface ExportedPdfWriter {
+        void write(ExportedPdf pdf) throws IOException;
+    }
+
+    /**
+     * Write the PDFs of the invoices of a period as a ZIP archive, one entry per invoice. Each PDF is copied from
+     * Minio to the archive as it arrives. The PDFs are already compressed, so they are not compressed again; the
+     * entries are deflated at level 0 rather than stored, since a stored entry needs its CRC before its content.
+     *
+     * @param from First day of the period
+     * @param to   Last day of the period
+     * @param out  Stream to write the archive to
+     * @throws IOException If an error occurs while fetching or writing a PDF
+     */
+    public void writeZip(Date from, Date to, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.NO_COMPRESSION);
+
+        forEachPdf(from, to, pdf -> {
+            zip.putNextEntry(new ZipEntry(pdf.invoice().getCreationDate() + "-" + pdf.invoice().getId() + ".pdf"));
+            pdf.content().transferTo(zip);
+            zip.closeEntry();
+        });
+
+        zip.finish();
+    }
+
+    /**
+     * Store the export of a period in Minio. The export is written to a pipe by a streaming thread and uploaded from
+     * it in parts, so it is never held whole in memory nor on disk.
+     *
+     * @param from   First day of the period
+     * @param to     Last day of the period
+     * @param merged True for a single merged PDF, false for a ZIP archive
+     * @return Presigned URL of the stored export
+     * @throws IOException              If an error occurs while writing the export
+     * @throws MinioException           If an error occurs while uploading the export
+     * @throws NoSuchAlgorithmException If an algorithm is not available
+     * @throws InvalidKeyException      If the Minio credentials are invalid
+     * @throws IllegalArgumentException If the period has too many completed invoices to be merged
+     */
+    public String storeExport(Date from, Date to, boolean merged) throws IOException, MinioException, NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (merged) {
+            checkMergeable(from, to);
+        }
+        String objectName = from + "-" + to + "/" + UUID.randomUUID() + (merged ? ".pdf" : ".zip");
+
+        PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream out = new PipedOutputStream(in);
+        CompletableFuture<Void> writing = CompletableFuture.runAsync(() -> {
+            try (out) {
+                if (merged) {
+                    writeMergedPdf(from, to, out);
+                } else {
+                    writeZip(from, to, out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, streamingExecutor);
+
+        // Closing the pipe stops the writer if the upload fails
+        try (in) {
+            minioService.uploadStream(exportBucket, objectName, in, merged ? "application/pdf" : "application/zip", false);
+        }
+
+        try {
+            writing.join();
+        } catch (CompletionException e) {
+            // The pipe was closed by the failed writer, the uploaded export is truncated
+            minioService.deleteFileFromPrivateBucket(exportBucket, objectName);
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+
+        logger.info("Stored the export of the invoices from " + from + " to " + to + " as " + exportBucket + "/" + objectName);
+        return minioService.getPrivateDocumentUrl(exportBucket, objectName);
+    }
+
+    /**
+     * Check that the invoices of a period can be merged in a single PDF
+     *
+     * @param from First day of the period
+     * @param to   Last day of the period
+     * @throws IllegalArgumentException If the period has too many completed invoices
+     */
+    public void checkMergeable(Date from, Date to) throws IllegalArgumentException {
+        long count = invoiceRepository.countCompletedBetween(from, to);
+        if (count > maxMergedInvoices) {
+            throw new IllegalArgumentException("Cannot merge " + count + " invoices, the maximum is " + maxMergedInvoices);
+        }
+    }
+
+    /**
+     * Write the PDFs of the invoices of a period as a single PDF. Unlike the ZIP archive, the merged PDF cannot be
+     * streamed: its cross-reference table and page tree are only known once the last invoice is appended, so the
+     * merged document is built in temporary files rather than in memory, then written. The temporary files grow with
+     * the number of invoices, which is capped by invoice.export.max-merged-invoices, checked by checkMergeable and
+     * again while merging for the invoices completed since.
+     *
+     * @param from First day of the period
+     * @param to   Last day of the period
+     * @param out  Stream to write the merged PDF to
+     * @throws IOException              If an error occurs while fetching, merging or writing a PDF
+     * @throws IllegalArgumentException If the period has too many completed invoices
+     */
+    public void writeMergedPdf(Date from, Date to, OutputStream out) throws IOException, IllegalArgumentException {
+        PDFMergerUtility merger = new PDFMergerUtility();
+        AtomicLong merged = new AtomicLong();
+
+        try (PDDocument mergedDocument = new PDDocument(IOUtils.createTempFileOnlyStreamCache())) {
+            forEachPdf(from, to, pdf -> {
+                if (merged.incrementAndGet() > maxMergedInvoices) {
+                    throw new IllegalArgumentException("Cannot merge more than " + maxMergedInvoices + " invoices");
+                }
+                // The pages are copied into the merged document, so each invoice can be closed once appended
+                try (PDDocument document = Loader.loadPDF(new RandomAccessReadBuffer(pdf.content()))) {
+                    merger.appendDocument(mergedDocument, document);
+                }
+            });
+
+            mergedDocument.save(out);
+        }
+    }
+
+    /**
+     * Open the PDFs of the completed invoices of a period and write them in order, with at most prefetch
+     * PDFs opened ahead of the one being written. Each PDF is closed once written.
+     *
+     * @param from   First day of the period
+     * @param to     Last day of the period
+     * @param writer Writer of each PDF
+     * @throws IOException If an error occurs while fetching or writing a PDF
+     */
+    private void forEachPdf(Date from, Date to, ExportedPdfWriter writer) throws IOException {
+        Iterator<InvoiceSummary> invoices = new CompletedInvoices(from, to);
+        Deque<CompletableFuture<ExportedPdf>> window = new ArrayDeque<>(prefetch);
+        int exported = 0;
+
+        try {
+            while (invoices.hasNext() || !window.isEmpty()) {
+                while (window.size() < prefetch && invoices.hasNext()) {
+                    InvoiceSummary invoice = invoices.next();
+                    window.add(CompletableFuture.supplyAsync(() -> fetch(invoice), invoiceExportExecutor));
+                }
+
+                ExportedPdf pdf;
+                try {
+                    pdf = window.poll().join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                        throw uncheckedIOException.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+
+                try (InputStream content = pdf.content()) {
+                    writer.write(pdf);
+                }
+                exported++;
+            }
+        } finally {
+            // The PDFs opened ahead are closed once opened, the export has failed
+            window.forEach(future -> future.thenAccept(this::closeQuietly));
+        }
+
+        logger.info("Exported " + exported + " invoices created between " + from + " and " + to);
+    }
+
+    /**
+     * Open the PDF of an invoice in Minio, its content is read as it is consumed
+     *
+     * @param invoice Invoice to fetch
+     * @return PDF of the invoice, to be closed by the caller
+     */
+    private ExportedPdf fetch(InvoiceSummary invoice) {
+        ObjectLocation location = invoiceStorage.getInvoiceLocation(invoice.getId(), invoice.getPdfUrl());
+        try {
+            return new ExportedPdf(invoice, minioService.getObject(location.bucket(), location.object()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new UncheckedIOException(new IOException("Could not fetch the PDF of invoice " + invoice.getId(), e));
+        }
+    }
+
+    /**
+     * Close a PDF which will not be written, the errors are only logged
+     *
+     * @param pdf PDF opened ahead
+     */
+    private void closeQuietly(ExportedPdf pdf) {
+        try {
+            pdf.content().close();
+        } catch (IOException e) {
+            logger.warn("Could not close the PDF of invoice " + pdf.invoice().getId(), e);
+        }
+    }
+
+    /**
+     * Completed invoices of a period, read from the database page by page in creation order
+     */
+    private class CompletedInvoices implements Iterator<InvoiceSummary> {
+
+        private final Date from;
+
+        private final Date to;
+
+        private List<InvoiceSummary> page;
+
+        private int index;
+
+        private InvoiceSummary next;
+
+        CompletedInvoices(Date from, Date to) {
+            this.from = from;
+            this.to = to;
+            this.page = invoiceRepository.findFirstPageBetween(from, to, PageRequest.of(0, pageSize));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (index == page.size()) {
+                    if (page.size() < pageSize) {
+                        return false;
+                    }
+                    InvoiceSummary last = page.get(page.size() - 1);
+                    page = invoiceRepository.findPageBetweenAfter(from, to, last.getCreationDate(), last.getId(), PageRequest.of(0, pageSize));
+                    index = 0;
+                    continue;
+                }
+
+                InvoiceSummary invoice = page.get(index++);
+                if (invoice.getStatus() == null || invoice.getStatus() == InvoiceStatus.COMPLETED) {
+                    next = invoice;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public InvoiceSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            InvoiceSummary invoice = next;
+            next = null;
+            return invoice;
+        }
+    }
+}
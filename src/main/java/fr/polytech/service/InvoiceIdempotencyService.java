@@ -0,0 +1,281 @@
+package fr.polytech.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.polytech.exception.IdempotencyKeyReusedException;
+import fr.polytech.exception.TooManyRequestsException;
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.repository.InvoiceIdempotencyKeyRepository;
+import fr.polytech.repository.InvoiceRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Service making the invoice creation idempotent. A request repeated with the same Idempotency-Key gets the invoice
+ * created by the first one, without creating nor generating a new PDF. The keys are stored in a table with a unique
+ * index, inserted with the invoice, and looked up through an in-memory cache. Concurrent requests with the same key
+ * wait for the one creating the invoice. A hash of the request is recorded with its key, so that a key sent again
+ * with a different request is rejected instead of returning an invoice which does not match it.
+ */
+@Service
+public class InvoiceIdempotencyService {
+
+    /**
+     * Maximum length of the key sent by a client
+     */
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceIdempotencyService.class);
+
+    @Autowired
+    private InvoiceService invoiceService;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private InvoiceIdempotencyKeyRepository invoiceIdempotencyKeyRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${invoice.idempotency.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    /**
+     * Keys are forgotten this long after the creation of their invoice
+     */
+    @Value("${invoice.idempotency.retention-hours:24}")
+    private long retentionHours;
+
+    /**
+     * Invoice created for each recently used key, with the hash of the request which created it
+     */
+    private Cache<String, RecordedKey> recordedKeys;
+
+    /**
+     * Creations in progress, so that concurrent requests with the same key share a single creation
+     */
+    private final ConcurrentMap<String, Creation> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Invoice recorded for a key
+     *
+     * @param invoiceId   ID of the invoice created for the key
+     * @param requestHash Hash of the request which created it, null for the keys recorded before it was kept
+     */
+    private record RecordedKey(UUID invoiceId, String requestHash) {
+    }
+
+    /**
+     * Creation in progress for a key
+     *
+     * @param requestHash Hash of the request creating the invoice
+     * @param invoice     Invoice, completed once created
+     */
+    private record Creation(String requestHash, CompletableFuture<Invoice> invoice) {
+    }
+
+    /**
+     * Initialize the cache of the keys and expose its statistics
+     */
+    @PostConstruct
+    public void initKeyCache() {
+        recordedKeys = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofHours(retentionHours))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, recordedKeys, "invoice.idempotency.keys");
+    }
+
+    /**
+     * Create an invoice, or get the invoice already created with the same key
+     *
+     * @param principal      Name of the principal sending the request, the keys of different principals never collide
+     * @param idempotencyKey Key sent by the client
+     * @param invoice        Invoice to create
+     * @return Invoice created for this key
+     * @throws IllegalArgumentException       If the key is empty or too long
+     * @throws IdempotencyKeyReusedException  If the key was already used with a different request
+     * @throws RuntimeException               If at least one of the fields is missing
+     * @throws TooManyRequestsException       If too many invoices are waiting for their PDF
+     */
+    public Invoice createInvoice(String principal, String idempotencyKey, InvoiceDataDTO invoice) throws IllegalArgumentException, IdempotencyKeyReusedException, RuntimeException, TooManyRequestsException {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("The idempotency key must contain between 1 and " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String key = principal + ":" + idempotencyKey;
+        // Hashed before the creation fills in the missing fields, so that a retry of the same body matches
+        String requestHash = hashRequest(invoice);
+
+        Optional<Invoice> existingInvoice = findInvoice(key, requestHash);
+        if (existingInvoice.isPresent()) {
+            return existingInvoice.get();
+        }
+
+        Creation creation = new Creation(requestHash, new CompletableFuture<>());
+        Creation runningCreation = inFlight.putIfAbsent(key, creation);
+        if (runningCreation != null) {
+            checkRequestHash(runningCreation.requestHash(), requestHash);
+            return join(runningCreation.invoice());
+        }
+
+        try {
+            Invoice createdInvoice = findInvoice(key, requestHash).orElseGet(() -> create(key, requestHash, invoice));
+            creation.invoice().complete(createdInvoice);
+            return createdInvoice;
+        } catch (RuntimeException e) {
+            creation.invoice().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, creation);
+        }
+    }
+
+    /**
+     * Create an invoice with its key. If another instance recorded the key first, its invoice is returned instead.
+     *
+     * @param key         Scoped idempotency key
+     * @param requestHash Hash of the request
+     * @param invoice     Invoice to create
+     * @return Invoice created for this key
+     */
+    private Invoice create(String key, String requestHash, InvoiceDataDTO invoice) {
+        try {
+            Invoice createdInvoice = invoiceService.createInvoice(invoice, key, requestHash);
+            recordedKeys.put(key, new RecordedKey(createdInvoice.getId(), requestHash));
+            return createdInvoice;
+        } catch (DataIntegrityViolationException e) {
+            logger.info("Idempotency key already recorded by a concurrent request");
+            return findInvoice(key, requestHash).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * Find the invoice already created with a key, from the cache or from the database
+     *
+     * @param key         Scoped idempotency key
+     * @param requestHash Hash of the request
+     * @return Invoice created for this key, empty if the key is unknown or its invoice was deleted
+     * @throws IdempotencyKeyReusedException If the key was recorded by a different request
+     */
+    private Optional<Invoice> findInvoice(String key, String requestHash) throws IdempotencyKeyReusedException {
+        RecordedKey recordedKey = recordedKeys.getIfPresent(key);
+        if (recordedKey == null) {
+            recordedKey = invoiceIdempotencyKeyRepository.findById(key)
+                    .map(idempotencyKey -> new RecordedKey(idempotencyKey.getInvoiceId(), idempotencyKey.getRequestHash()))
+                    .orElse(null);
+            if (recordedKey == null) {
+                return Optional.empty();
+            }
+            recordedKeys.put(key, recordedKey);
+        }
+
+        checkRequestHash(recordedKey.requestHash(), requestHash);
+
+        Optional<Invoice> invoice = invoiceRepository.findById(recordedKey.invoiceId());
+        if (invoice.isEmpty()) {
+            recordedKeys.invalidate(key);
+        }
+        return invoice;
+    }
+
+    /**
+     * Check that a request matches the one which used its key first
+     *
+     * @param recordedHash Hash of the request which used the key first, null if it is unknown
+     * @param requestHash  Hash of the request
+     * @throws IdempotencyKeyReusedException If the requests differ
+     */
+    private void checkRequestHash(String recordedHash, String requestHash) throws IdempotencyKeyReusedException {
+        if (recordedHash != null && !recordedHash.equals(requestHash)) {
+            throw new IdempotencyKeyReusedException("The idempotency key was already used with a different request");
+        }
+    }
+
+    /**
+     * Hash the fields of a request. Each field is prefixed with its length, so that different requests never share
+     * the same representation.
+     *
+     * @param invoice Invoice to create
+     * @return Hex encoded SHA-256 hash of the request
+     */
+    private String hashRequest(InvoiceDataDTO invoice) {
+        StringBuilder fields = new StringBuilder();
+        for (Object field : new Object[]{invoice.getCreationDate(), invoice.getName(), invoice.getSurname(),
+                invoice.getAddress(), invoice.getPlan(), invoice.getPrice()}) {
+            if (field == null) {
+                fields.append("-;");
+            } else {
+                String value = Objects.toString(field);
+                fields.append(value.length()).append(':').append(value).append(';');
+            }
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(fields.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Wait for a creation started by a concurrent request with the same key
+     *
+     * @param creation Creation in progress
+     * @return Invoice created for the key
+     */
+    private Invoice join(CompletableFuture<Invoice> creation) {
+        try {
+            return creation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Forget the keys older than the retention period
+     */
+    @Scheduled(fixedDelayString = "${invoice.idempotency.purge-delay-ms:3600000}")
+    public void purgeExpiredKeys() {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - Duration.ofHours(retentionHours).toMillis());
+        Integer deleted = transactionTemplate.execute(status -> invoiceIdempotencyKeyRepository.deleteCreatedBefore(before));
+        if (deleted != null && deleted > 0) {
+            logger.info("Purged " + deleted + " expired idempotency keys");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package fr.polytech.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Meters of the invoice pipeline: one timer per stage of the creation of an invoice, the size of the generated PDFs
+ * and the number of PDFs already stored.
+ */
+@Component
+public class InvoiceMetrics {
+
+    public static final String STAGE_VALIDATION = "validation";
+    public static final String STAGE_DB_INSERT = "db_insert";
+    public static final String STAGE_RENDER = "render";
+    public static final String STAGE_UPLOAD = "upload";
+    public static final String STAGE_FINAL_SAVE = "final_save";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Map<String, Timer> stageTimers;
+
+    private DistributionSummary pdfSize;
+
+    private Counter deduplicatedPdfs;
+
+    /**
+     * Register the meters, so that every stage is exported before its first invoice
+     */
+    @PostConstruct
+    public void initMeters() {
+        stageTimers = Map.of(
+                STAGE_VALIDATION, stageTimer(STAGE_VALIDATION),
+                STAGE_DB_INSERT, stageTimer(STAGE_DB_INSERT),
+                STAGE_RENDER, stageTimer(STAGE_RENDER),
+                STAGE_UPLOAD, stageTimer(STAGE_UPLOAD),
+                STAGE_FINAL_SAVE, stageTimer(STAGE_FINAL_SAVE));
+
+        pdfSize = DistributionSummary.builder("invoice.pdf.size")
+                .description("Size of the generated invoice PDFs")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        deduplicatedPdfs = Counter.builder("invoice.pdf.deduplicated")
+                .description("Generated PDFs not uploaded because an identical PDF was already stored")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Build the timer of a stage of the creation of an invoice
+     *
+     * @param stage Name of the stage
+     * @return Registered timer
+     */
+    private Timer stageTimer(String stage) {
+        return Timer.builder("invoice.create.stage")
+                .description("Duration of each stage of the creation of an invoice")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start timing a stage
+     *
+     * @return Sample to stop with {@link #stop(Timer.Sample, String)}
+     */
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Stop timing a stage
+     *
+     * @param sample Sample returned by {@link #start()}
+     * @param stage  Name of the stage, one of the STAGE_ constants
+     */
+    public void stop(Timer.Sample sample, String stage) {
+        sample.stop(stageTimers.get(stage));
+    }
+
+    /**
+     * Record the size of a generated PDF
+     *
+     * @param bytes Size of the PDF in bytes
+     */
+    public void recordPdfSize(long bytes) {
+        pdfSize.record(bytes);
+    }
+
+    /**
+     * Count a generated PDF which was already stored
+     */
+    public void recordDeduplicatedPdf() {
+        deduplicatedPdfs.increment();
+    }
+}
@@ -0,0 +1,488 @@
+package fr.polytech.service;
+
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceOutbox;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.StoredPdf;
+import fr.polytech.pdf.InvoicePdfRenderer;
+import fr.polytech.repository.InvoiceOutboxRepository;
+import fr.polytech.repository.InvoiceRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.minio.errors.MinioException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relay of the invoice outbox: renders and uploads the PDF of every pending invoice in the background.
+ * A failed upload is retried a few times right away, then rescheduled with an exponential backoff persisted in the
+ * outbox, so that the retries survive a restart. An upload is claimed in the outbox by the instance processing it,
+ * for a limited time so that the uploads of a stopped instance are taken over by the others.
+ */
+@Service
+public class InvoiceOutboxRelay {
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceOutboxRelay.class);
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private InvoiceOutboxRepository invoiceOutboxRepository;
+
+    @Autowired
+    private InvoicePdfRenderer invoicePdfRenderer;
+
+    @Autowired
+    private PdfBufferPool pdfBufferPool;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Autowired
+    private ThreadPoolTaskExecutor invoiceWorkerExecutor;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private InvoiceMetrics invoiceMetrics;
+
+    @Autowired
+    private InvoiceCache invoiceCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${invoice.outbox.max-backlog:10000}")
+    private long maxBacklog;
+
+    @Value("${invoice.outbox.poll-batch-size:100}")
+    private int pollBatchSize;
+
+    @Value("${invoice.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${invoice.outbox.immediate-retries:3}")
+    private int immediateRetries;
+
+    @Value("${invoice.outbox.backoff-initial-ms:1000}")
+    private long backoffInitialMs;
+
+    @Value("${invoice.outbox.backoff-max-ms:600000}")
+    private long backoffMaxMs;
+
+    /**
+     * Time an upload stays claimed by an instance, after which another instance may process it
+     */
+    @Value("${invoice.outbox.claim-lease-ms:300000}")
+    private long claimLeaseMs;
+
+    private RetryTemplate retryTemplate;
+
+    /**
+     * Number of uploads handed to the worker pool of this instance and not finished yet
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Number of pending uploads in the outbox, counted periodically and increased by the invoices created since
+     */
+    private final AtomicLong backlog = new AtomicLong();
+
+    /**
+     * Requests waiting for the completion of uploads, by invoice ID
+     */
+    private final ConcurrentMap<UUID, List<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * Initialize the retries done right after a failed upload, and expose the number of uploads in progress
+     * and pending
+     */
+    @PostConstruct
+    public void initRetryTemplate() {
+        retryTemplate = RetryTemplate.builder()
+                .maxAttempts(immediateRetries)
+                .exponentialBackoff(backoffInitialMs / 10, 2, backoffInitialMs)
+                .build();
+
+        Gauge.builder("invoice.outbox.in-flight", inFlight, AtomicInteger::get)
+                .description("Uploads handed to the worker pool and not finished yet")
+                .register(meterRegistry);
+        Gauge.builder("invoice.outbox.backlog", backlog, AtomicLong::get)
+                .description("Pending uploads in the outbox, as last counted")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Check whether too many uploads are pending to accept new invoices. The backlog is not counted on every call,
+     * it is refreshed by refreshBacklog and may be overestimated until the next refresh.
+     *
+     * @return True if the backlog is full
+     */
+    public boolean isBacklogFull() {
+        return isBacklogFull(1);
+    }
+
+    /**
+     * Check whether too many uploads are pending to accept a number of new invoices at once
+     *
+     * @param count Number of invoices to create
+     * @return True if the backlog cannot take the invoices
+     */
+    public boolean isBacklogFull(int count) {
+        return backlog.get() + count > maxBacklog;
+    }
+
+    /**
+     * Count the pending uploads in the outbox, including the uploads added by the other instances
+     */
+    @Scheduled(fixedDelayString = "${invoice.outbox.backlog-refresh-ms:1000}")
+    public void refreshBacklog() {
+        backlog.set(invoiceOutboxRepository.count());
+    }
+
+    /**
+     * Add uploads which have just been inserted in the outbox to the backlog, until the next refresh
+     *
+     * @param count Number of inserted uploads
+     */
+    public void recordPending(int count) {
+        backlog.addAndGet(count);
+    }
+
+    /**
+     * Get the end of the claim of an upload claimed now, used by the callers inserting uploads already claimed
+     *
+     * @return Date until which the upload is claimed
+     */
+    public Timestamp getClaimEnd() {
+        return new Timestamp(System.currentTimeMillis() + claimLeaseMs);
+    }
+
+    /**
+     * Claim and hand to the worker pool the due uploads, including the uploads left over by a stopped instance,
+     * rejected by a full pool or rescheduled after a failure. The uploads claimed by another instance are skipped.
+     */
+    @Scheduled(fixedDelayString = "${invoice.outbox.poll-delay-ms:5000}")
+    public void relayDueUploads() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<UUID> ids = invoiceOutboxRepository.findDueIds(now, PageRequest.of(0, pollBatchSize));
+
+        for (UUID id : ids) {
+            Integer claimed = transactionTemplate.execute(status -> invoiceOutboxRepository.claim(id, now, getClaimEnd()));
+            if (claimed != null && claimed == 1 && !dispatch(id)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hand an upload claimed by this instance to the worker pool
+     *
+     * @param id ID of the invoice to upload
+     * @return False if the worker pool is full
+     */
+    public boolean dispatch(UUID id) {
+        inFlight.incrementAndGet();
+        try {
+            invoiceWorkerExecutor.execute(() -> process(id));
+            return true;
+        } catch (TaskRejectedException e) {
+            // The upload stays in the outbox and will be picked up by relayDueUploads
+            inFlight.decrementAndGet();
+            release(List.of(id));
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the upload of an invoice to be completed or to fail. The status of the invoice is read once the waiter
+     * is registered, so that a completion committed just before is not missed. An upload rescheduled and completed by
+     * another instance is not notified, the wait then times out.
+     *
+     * @param id        ID of the invoice
+     * @param timeoutMs Maximum waiting time
+     * @return True if the invoice is no longer pending, false if the wait timed out
+     */
+    public boolean awaitCompletion(UUID id, long timeoutMs) {
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        waiters.compute(id, (key, completions) -> {
+            List<CompletableFuture<Void>> registered = completions == null ? new ArrayList<>() : completions;
+            registered.add(completion);
+            return registered;
+        });
+
+        try {
+            boolean pending = invoiceRepository.findById(id)
+                    .map(invoice -> invoice.getStatus() == InvoiceStatus.PENDING)
+                    .orElse(false);
+            if (pending) {
+                completion.get(timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiters.computeIfPresent(id, (key, completions) -> {
+                completions.remove(completion);
+                return completions.isEmpty() ? null : completions;
+            });
+        }
+    }
+
+    /**
+     * Wake up the requests waiting for uploads which have just been completed
+     *
+     * @param ids IDs of the invoices
+     */
+    private void notifyCompleted(Collection<UUID> ids) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        for (UUID id : ids) {
+            List<CompletableFuture<Void>> completions = waiters.remove(id);
+            if (completions != null) {
+                completions.forEach(completion -> completion.complete(null));
+            }
+        }
+    }
+
+    /**
+     * Release the claim of uploads which were not completed, they are retried by relayDueUploads
+     *
+     * @param ids IDs of the invoices to upload
+     */
+    public void release(Collection<UUID> ids) {
+        if (!ids.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> invoiceOutboxRepository.release(ids));
+        }
+    }
+
+    /**
+     * Set the final status of invoices and remove their uploads from the outbox, in one transaction
+     *
+     * @param ids    IDs of the invoices
+     * @param status Final status of the invoices
+     */
+    public void completeAll(Collection<UUID> ids, InvoiceStatus status) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        Timer.Sample finalSave = invoiceMetrics.start();
+        try {
+            transactionTemplate.executeWithoutResult(transaction -> {
+                invoiceRepository.updateStatus(ids, status);
+                invoiceOutboxRepository.deleteAllByIdInBatch(ids);
+            });
+            invoiceCache.invalidateAll(ids);
+            notifyCompleted(ids);
+        } finally {
+            invoiceMetrics.stop(finalSave, InvoiceMetrics.STAGE_FINAL_SAVE);
+        }
+    }
+
+    /**
+     * Record the stored PDFs of invoices, mark the invoices as completed and remove their uploads from the outbox,
+     * in one short transaction holding the content lock. The PDFs are stored before, outside any transaction, and the
+     * caller checks after the commit that they were not removed meanwhile, see {@link InvoiceStorage#isStored}.
+     *
+     * @param pdfs Stored PDF of each invoice, by invoice ID
+     */
+    public void completeAll(Map<UUID, StoredPdf> pdfs) {
+        if (pdfs.isEmpty()) {
+            return;
+        }
+
+        Timer.Sample finalSave = invoiceMetrics.start();
+        try {
+            transactionTemplate.executeWithoutResult(transaction -> {
+                invoiceStorage.lockContent();
+                // The updates are flushed by JDBC batches on commit
+                for (Invoice invoice : invoiceRepository.findAllById(pdfs.keySet())) {
+                    StoredPdf pdf = pdfs.get(invoice.getId());
+                    invoice.setPdfUrl(pdf.objectKey());
+                    invoice.setContentHash(pdf.contentHash());
+                    invoice.setContentSize(pdf.contentSize());
+                    invoice.setStatus(InvoiceStatus.COMPLETED);
+                }
+                invoiceOutboxRepository.deleteAllByIdInBatch(pdfs.keySet());
+            });
+            invoiceCache.invalidateAll(pdfs.keySet());
+            notifyCompleted(pdfs.keySet());
+        } finally {
+            invoiceMetrics.stop(finalSave, InvoiceMetrics.STAGE_FINAL_SAVE);
+        }
+    }
+
+    /**
+     * Put completed invoices back in the outbox, their content-addressed PDF having been removed by the reaper before
+     * they were committed. Their PDF is uploaded again by relayDueUploads.
+     *
+     * @param entries Uploads of the invoices, by invoice ID
+     */
+    public void requeue(Map<UUID, InvoiceOutbox> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            invoiceRepository.updateStatus(entries.keySet(), InvoiceStatus.PENDING);
+            invoiceOutboxRepository.saveAll(entries.values());
+        });
+        invoiceCache.invalidateAll(entries.keySet());
+        recordPending(entries.size());
+    }
+
+    /**
+     * Render and upload the PDF of a pending invoice, then complete or reschedule its upload
+     *
+     * @param id ID of the invoice to upload
+     */
+    private void process(UUID id) {
+        try {
+            InvoiceOutbox entry = invoiceOutboxRepository.findById(id).orElse(null);
+            if (entry == null) {
+                return;
+            }
+
+            try {
+                retryTemplate.execute((RetryCallback<Void, IOException>) context -> {
+                    generate(entry);
+                    return null;
+                });
+            } catch (IOException | RuntimeException e) {
+                reschedule(entry, e);
+                return;
+            }
+
+            logger.info("Invoice " + id + " generated");
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Render the PDF of a pending invoice, upload it to Minio and complete the invoice. The upload runs outside any
+     * transaction; a content-addressed PDF removed by the reaper before the invoice was committed is uploaded again.
+     *
+     * @param entry Pending upload
+     * @throws IOException      If an error occurs while creating the PDF
+     * @throws RuntimeException If an error occurs while uploading the PDF to Minio
+     */
+    private void generate(InvoiceOutbox entry) throws IOException, RuntimeException {
+        // Le PDF est rendu en mémoire puis envoyé à Minio, sans passer par le disque
+        PdfBuffer buffer = pdfBufferPool.acquire();
+        try {
+            Timer.Sample render = invoiceMetrics.start();
+            try {
+                invoicePdfRenderer.render(entry.getId(), entry.toInvoiceData(), buffer);
+            } finally {
+                invoiceMetrics.stop(render, InvoiceMetrics.STAGE_RENDER);
+            }
+            invoiceMetrics.recordPdfSize(buffer.size());
+
+            StoredPdf pdf = upload(entry, buffer);
+            completeAll(Map.of(entry.getId(), pdf));
+
+            if (!isStored(pdf)) {
+                // The invoice is committed, the reaper keeps the PDF from now on
+                logger.warn("PDF of invoice " + entry.getId() + " removed before the invoice was committed, uploading it again");
+                upload(entry, buffer);
+            }
+        } finally {
+            pdfBufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Check whether a PDF is still stored once its invoice is committed
+     *
+     * @param pdf Stored PDF
+     * @return True if the PDF is stored
+     * @throws RuntimeException If an error occurs while reading the metadata of the PDF
+     */
+    private boolean isStored(StoredPdf pdf) throws RuntimeException {
+        try {
+            return invoiceStorage.isStored(pdf);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Upload the rendered PDF of a pending invoice to Minio
+     *
+     * @param entry  Pending upload
+     * @param buffer Buffer holding the PDF
+     * @return Stored PDF
+     * @throws RuntimeException If an error occurs while uploading the PDF to Minio
+     */
+    private StoredPdf upload(InvoiceOutbox entry, PdfBuffer buffer) throws RuntimeException {
+        Timer.Sample upload = invoiceMetrics.start();
+        try {
+            return invoiceStorage.storePdf(entry.getObjectKey(), buffer);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException(e);
+        } finally {
+            invoiceMetrics.stop(upload, InvoiceMetrics.STAGE_UPLOAD);
+        }
+    }
+
+    /**
+     * Schedule the next attempt of a failed upload and release its claim, or give up once the maximum number of
+     * attempts is reached. An upload removed meanwhile, with its deleted invoice, is not inserted again.
+     *
+     * @param entry Failed upload
+     * @param e     Cause of the failure
+     */
+    private void reschedule(InvoiceOutbox entry, Exception e) {
+        int attempts = entry.getAttempts() + 1;
+
+        if (attempts >= maxAttempts) {
+            logger.error("Giving up the generation of invoice " + entry.getId() + " after " + attempts + " attempts", e);
+            completeAll(List.of(entry.getId()), InvoiceStatus.FAILED);
+            return;
+        }
+
+        long backoff = Math.min(backoffMaxMs, backoffInitialMs << Math.min(attempts, 30));
+        logger.warn("Error while generating invoice " + entry.getId() + ", next attempt in " + backoff + " ms", e);
+
+        Timestamp nextAttemptAt = new Timestamp(System.currentTimeMillis() + backoff);
+        transactionTemplate.executeWithoutResult(status -> invoiceOutboxRepository.reschedule(entry.getId(), attempts, nextAttemptAt));
+    }
+}
@@ -0,0 +1,168 @@
+package fr.polytech.service;
+
+import fr.polytech.model.InvoiceTombstone;
+import fr.polytech.repository.InvoiceRepository;
+import fr.polytech.repository.InvoiceTombstoneRepository;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.MinioException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Reaper removing the PDFs of the deleted invoices from Minio. The tombstones are handled by batches, the objects of a
+ * bucket are removed with multi-object delete requests, and the legacy buckets holding a single invoice are dropped.
+ * A content-addressed PDF is only removed once no invoice references it any more.
+ */
+@Service
+public class InvoiceReaper {
+
+    /**
+     * Maximum number of objects of a multi-object delete request
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceReaper.class);
+
+    @Autowired
+    private InvoiceTombstoneRepository invoiceTombstoneRepository;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Value("${invoice.reaper.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * Remove the PDFs of the oldest tombstones, then the tombstones of the removed PDFs.
+     * The tombstones of the PDFs which could not be removed are kept and retried by the next run.
+     */
+    @Scheduled(fixedDelayString = "${invoice.reaper.delay-ms:60000}")
+    public void reap() {
+        List<InvoiceTombstone> tombstones = invoiceTombstoneRepository.findAllByOrderByDeletedAtAsc(
+                PageRequest.of(0, Math.min(batchSize, MAX_BATCH_SIZE)));
+
+        if (tombstones.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<InvoiceTombstone>> tombstonesByBucket = new LinkedHashMap<>();
+        List<InvoiceTombstone> contentTombstones = new ArrayList<>();
+        for (InvoiceTombstone tombstone : tombstones) {
+            if (tombstone.getBucket().equals(invoiceStorage.getInvoiceBucket()) && invoiceStorage.isContentKey(tombstone.getObjectKey())) {
+                contentTombstones.add(tombstone);
+            } else {
+                tombstonesByBucket.computeIfAbsent(tombstone.getBucket(), bucket -> new ArrayList<>()).add(tombstone);
+            }
+        }
+
+        List<UUID> reaped = new ArrayList<>(tombstones.size());
+        if (!contentTombstones.isEmpty()) {
+            reaped.addAll(reapContent(contentTombstones));
+        }
+        for (Map.Entry<String, List<InvoiceTombstone>> bucketTombstones : tombstonesByBucket.entrySet()) {
+            reaped.addAll(reapBucket(bucketTombstones.getKey(), bucketTombstones.getValue()));
+        }
+
+        invoiceTombstoneRepository.deleteAllByIdInBatch(reaped);
+
+        logger.info("Removed " + reaped.size() + " of " + tombstones.size() + " deleted invoice PDFs from Minio");
+    }
+
+    /**
+     * Remove the content-addressed PDFs of the tombstones which are not referenced by another invoice. The exclusive
+     * content lock is held meanwhile, so that no invoice starts referencing a PDF being removed. If the lock is held
+     * by uploads in progress, the tombstones are kept for the next run.
+     *
+     * @param tombstones Tombstones of content-addressed PDFs
+     * @return IDs of the tombstones whose PDF was removed or is still referenced
+     */
+    private List<UUID> reapContent(List<InvoiceTombstone> tombstones) {
+        return transactionTemplate.execute(status -> {
+            if (!invoiceRepository.tryLockExclusive(InvoiceStorage.CONTENT_LOCK_ID)) {
+                logger.info("Uploads in progress, the shared invoice PDFs will be removed by the next run");
+                return List.of();
+            }
+
+            Set<String> referenced = new HashSet<>(invoiceRepository.findReferencedPdfUrls(
+                    tombstones.stream().map(InvoiceTombstone::getObjectKey).distinct().toList()));
+
+            List<UUID> reaped = new ArrayList<>(tombstones.size());
+            List<InvoiceTombstone> unreferenced = new ArrayList<>(tombstones.size());
+            for (InvoiceTombstone tombstone : tombstones) {
+                if (referenced.contains(tombstone.getObjectKey())) {
+                    reaped.add(tombstone.getId());
+                } else {
+                    unreferenced.add(tombstone);
+                }
+            }
+
+            if (!unreferenced.isEmpty()) {
+                reaped.addAll(reapBucket(invoiceStorage.getInvoiceBucket(), unreferenced));
+            }
+            return reaped;
+        });
+    }
+
+    /**
+     * Remove the PDFs of the tombstones of a bucket, and the bucket itself if it is a legacy bucket
+     *
+     * @param bucket     Name of the bucket
+     * @param tombstones Tombstones of the PDFs stored in the bucket
+     * @return IDs of the tombstones whose PDF was removed
+     */
+    private List<UUID> reapBucket(String bucket, List<InvoiceTombstone> tombstones) {
+        // Several tombstones may point to the same content-addressed PDF
+        List<String> objectNames = tombstones.stream().map(InvoiceTombstone::getObjectKey).distinct().toList();
+
+        Set<String> failed;
+        try {
+            failed = new HashSet<>(minioService.removeObjects(bucket, objectNames));
+            if (!bucket.equals(invoiceStorage.getInvoiceBucket()) && failed.isEmpty()) {
+                minioService.removeBucket(bucket);
+            }
+        } catch (ErrorResponseException e) {
+            if (!"NoSuchBucket".equals(e.errorResponse().code())) {
+                logger.error("Could not remove the deleted invoice PDFs from bucket " + bucket, e);
+                return List.of();
+            }
+            failed = Set.of();
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Could not remove the deleted invoice PDFs from bucket " + bucket, e);
+            return List.of();
+        }
+
+        List<UUID> reaped = new ArrayList<>(tombstones.size());
+        for (InvoiceTombstone tombstone : tombstones) {
+            if (!failed.contains(tombstone.getObjectKey())) {
+                reaped.add(tombstone.getId());
+            }
+        }
+        return reaped;
+    }
+}
@@ -0,0 +1,198 @@
+package fr.polytech.service;
+
+import fr.polytech.repository.InvoiceRepository;
+import io.minio.Result;
+import io.minio.errors.MinioException;
+import io.minio.messages.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Job finding the PDFs of the shared invoice bucket which belong to no invoice, such as PDFs uploaded for an invoice
+ * deleted at the same time. The bucket listing and the keys of the invoices are both read in byte order and merged
+ * like sorted files, so neither side is held in memory.
+ */
+@Component
+@ConditionalOnProperty(name = "invoice.reconciliation.enabled", havingValue = "true")
+public class InvoiceReconciliationJob {
+
+    /**
+     * Maximum number of objects of a multi-object delete request
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceReconciliationJob.class);
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${invoice.reconciliation.page-size:1000}")
+    private int pageSize;
+
+    /**
+     * Objects more recent than this are skipped, their invoice may not be committed yet
+     */
+    @Value("${invoice.reconciliation.min-age-minutes:60}")
+    private long minAgeMinutes;
+
+    /**
+     * False to only report the orphaned PDFs
+     */
+    @Value("${invoice.reconciliation.remove-orphans:false}")
+    private boolean removeOrphans;
+
+    /**
+     * Compare the shared bucket with the invoices and report or remove the orphaned PDFs
+     */
+    @Scheduled(cron = "${invoice.reconciliation.cron:0 0 3 * * *}")
+    public void reconcile() {
+        String bucket = invoiceStorage.getInvoiceBucket();
+        ZonedDateTime minLastModified = ZonedDateTime.now().minus(Duration.ofMinutes(minAgeMinutes));
+        Iterator<String> invoiceKeys = new InvoiceKeys();
+        String invoiceKey = invoiceKeys.hasNext() ? invoiceKeys.next() : null;
+
+        List<String> orphans = new ArrayList<>();
+        long listed = 0;
+        long orphaned = 0;
+
+        try {
+            for (Result<Item> result : minioService.listObjects(bucket)) {
+                Item item = result.get();
+                String objectName = item.objectName();
+                listed++;
+
+                // Skip the invoice keys lower than the object, they have no PDF yet
+                while (invoiceKey != null && invoiceKey.compareTo(objectName) < 0) {
+                    invoiceKey = invoiceKeys.hasNext() ? invoiceKeys.next() : null;
+                }
+
+                if (objectName.equals(invoiceKey) || item.lastModified().isAfter(minLastModified)) {
+                    continue;
+                }
+
+                orphaned++;
+                logger.warn("Orphaned invoice PDF " + bucket + "/" + objectName);
+                if (removeOrphans) {
+                    orphans.add(objectName);
+                    if (orphans.size() == MAX_BATCH_SIZE) {
+                        removeOrphans(bucket, orphans);
+                        orphans.clear();
+                    }
+                }
+            }
+
+            if (!orphans.isEmpty()) {
+                removeOrphans(bucket, orphans);
+            }
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+            logger.error("Could not reconcile the invoice bucket " + bucket, e);
+            return;
+        }
+
+        logger.info("Reconciled " + listed + " objects of bucket " + bucket + ", " + orphaned + " orphaned"
+                + (removeOrphans ? " and removed" : ""));
+    }
+
+    /**
+     * Remove orphaned PDFs. A content-addressed PDF may have been found by an upload since the bucket was listed, so
+     * such PDFs are only removed under the exclusive content lock and if they are still not referenced.
+     *
+     * @param bucket  Name of the shared bucket
+     * @param orphans Keys of the orphaned PDFs
+     * @throws MinioException           If an error occurs while removing the PDFs
+     * @throws IOException              If an I/O error occurs
+     * @throws NoSuchAlgorithmException If an algorithm is not available
+     * @throws InvalidKeyException      If the Minio credentials are invalid
+     * @throws RuntimeException         If an error occurs while removing the content-addressed PDFs
+     */
+    private void removeOrphans(String bucket, List<String> orphans) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException, RuntimeException {
+        List<String> keys = new ArrayList<>(orphans.size());
+        List<String> contentKeys = new ArrayList<>();
+        for (String orphan : orphans) {
+            (invoiceStorage.isContentKey(orphan) ? contentKeys : keys).add(orphan);
+        }
+
+        if (!keys.isEmpty()) {
+            minioService.removeObjects(bucket, keys);
+        }
+        if (contentKeys.isEmpty()) {
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!invoiceRepository.tryLockExclusive(InvoiceStorage.CONTENT_LOCK_ID)) {
+                logger.info("Uploads in progress, the orphaned shared PDFs will be removed by the next run");
+                return;
+            }
+
+            Set<String> referenced = new HashSet<>(invoiceRepository.findReferencedPdfUrls(contentKeys));
+            List<String> unreferenced = contentKeys.stream().filter(key -> !referenced.contains(key)).toList();
+            if (!unreferenced.isEmpty()) {
+                try {
+                    minioService.removeObjects(bucket, unreferenced);
+                } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Keys of the PDFs of the invoices stored in the shared bucket, read from the database page by page in byte order.
+     * The keys are ASCII, so their byte order is the order of String.compareTo.
+     */
+    private class InvoiceKeys implements Iterator<String> {
+
+        private List<String> page = List.of();
+
+        private int index;
+
+        private boolean last;
+
+        @Override
+        public boolean hasNext() {
+            if (index == page.size() && !last) {
+                String after = page.isEmpty() ? "" : page.get(page.size() - 1);
+                page = invoiceRepository.findSharedBucketKeysAfter(after, pageSize);
+                index = 0;
+                last = page.size() < pageSize;
+            }
+            return index < page.size();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(index++);
+        }
+    }
+}
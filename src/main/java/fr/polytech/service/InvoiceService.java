@@ -1,27 +1,46 @@
 package fr.polytech.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import fr.polytech.exception.TooManyRequestsException;
 import fr.polytech.model.Invoice;
 import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoiceIdempotencyKey;
+import fr.polytech.model.InvoiceOutbox;
+import fr.polytech.model.InvoicePageDTO;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.InvoiceStatusDTO;
+import fr.polytech.model.InvoiceSummary;
+import fr.polytech.model.InvoiceTombstone;
+import fr.polytech.model.ObjectLocation;
+import fr.polytech.repository.InvoiceIdempotencyKeyRepository;
+import fr.polytech.repository.InvoiceOutboxRepository;
 import fr.polytech.repository.InvoiceRepository;
-import io.minio.errors.MinioException;
+import fr.polytech.repository.InvoiceTombstoneRepository;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.ws.rs.NotFoundException;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
-import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.File;
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Service
 public class InvoiceService {
@@ -32,130 +51,312 @@ public class InvoiceService {
     private InvoiceRepository invoiceRepository;
 
     @Autowired
-    private MinioService minioService;
+    private InvoiceOutboxRepository invoiceOutboxRepository;
+
+    @Autowired
+    private InvoiceIdempotencyKeyRepository invoiceIdempotencyKeyRepository;
+
+    @Autowired
+    private InvoiceTombstoneRepository invoiceTombstoneRepository;
+
+    @Autowired
+    private InvoiceOutboxRelay invoiceOutboxRelay;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Autowired
+    private InvoiceMetrics invoiceMetrics;
+
+    @Autowired
+    private InvoiceCache invoiceCache;
+
+    @Autowired
+    private InvoiceUrlService invoiceUrlService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${invoice.list.max-page-size:500}")
+    private int maxPageSize;
+
+    /**
+     * Time a synchronous creation waits for the PDF of the invoice before answering with the pending invoice
+     */
+    @Value("${invoice.create.sync-timeout-ms:10000}")
+    private long syncTimeoutMs;
 
     /**
-     * Create a new invoice
+     * Create a new invoice. The invoice and its pending upload, claimed by this instance, are inserted in one
+     * transaction, the PDF is then rendered and uploaded in the background by the outbox relay.
      *
      * @param invoice Invoice to create
-     * @return Created invoice
-     * @throws IOException              If an error occurs while creating the PDF
-     * @throws RuntimeException         If an error occurs while creating the invoice
-     * @throws NotFoundException        If an error occurs while uploading the PDF to Minio
+     * @return Created invoice, pending until its PDF is uploaded
+     * @throws RuntimeException         If at least one of the fields is missing
+     * @throws TooManyRequestsException If too many invoices are waiting for their PDF
      */
-    public Invoice createInvoice(InvoiceDataDTO invoice) throws RuntimeException, NotFoundException, IOException {
+    public Invoice createInvoice(InvoiceDataDTO invoice) throws RuntimeException, TooManyRequestsException {
+        return createInvoice(invoice, null, null);
+    }
 
-        if (invoice.getCreationDate() == null) {
-            invoice.setCreationDate(new java.sql.Date(System.currentTimeMillis()));
-        }
+    /**
+     * Create a new invoice, recording the idempotency key of the request in the same transaction
+     *
+     * @param invoice        Invoice to create
+     * @param idempotencyKey Scoped idempotency key of the request, or null
+     * @param requestHash    Hash of the request, recorded with the idempotency key
+     * @return Created invoice, pending until its PDF is uploaded
+     * @throws RuntimeException                If at least one of the fields is missing
+     * @throws TooManyRequestsException        If too many invoices are waiting for their PDF
+     * @throws DataIntegrityViolationException If the idempotency key has already been recorded
+     */
+    public Invoice createInvoice(InvoiceDataDTO invoice, String idempotencyKey, String requestHash) throws RuntimeException, TooManyRequestsException, DataIntegrityViolationException {
 
-        if (invoice.getPrice() == 0.0 || invoice.getPlan() == null || invoice.getName() == null || invoice.getSurname() == null || invoice.getAddress() == null) {
-            throw new RuntimeException("At least one of the fields is missing");
+        Timer.Sample validation = invoiceMetrics.start();
+        try {
+            validateInvoiceData(invoice);
+        } finally {
+            invoiceMetrics.stop(validation, InvoiceMetrics.STAGE_VALIDATION);
         }
 
-        // Crée un nouveau document PDF
-        logger.info("Creating invoice");
-        PDDocument document = new PDDocument();
-        logger.info("Creating page");
-        PDPage page = new PDPage(PDRectangle.A4);
-        logger.info("Adding page to document");
-        document.addPage(page);
+        if (invoiceOutboxRelay.isBacklogFull()) {
+            throw new TooManyRequestsException("Too many invoices are waiting to be generated");
+        }
 
         Invoice invoiceToStore = new Invoice();
+        invoiceToStore.setId(UUID.randomUUID());
         invoiceToStore.setCreationDate(invoice.getCreationDate());
+        invoiceToStore.setPdfUrl(invoiceStorage.getObjectKey(invoiceToStore.getId(), invoiceToStore.getCreationDate()));
+        invoiceToStore.setStatus(InvoiceStatus.PENDING);
 
-        Invoice storedInvoice = invoiceRepository.save(invoiceToStore);
-
+        Timer.Sample insert = invoiceMetrics.start();
+        Invoice storedInvoice;
         try {
-            logger.info("Creating content stream");
-            // Initialise le contenu de la page
-            PDPageContentStream contentStream = new PDPageContentStream(document, page);
-            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.COURIER);
-            contentStream.setFont(font, 16);
-            contentStream.beginText();
-            contentStream.newLineAtOffset(50, 750);
-            contentStream.showText("Facture");
-            contentStream.endText();
-
-            contentStream.setFont(font, 12);
-            contentStream.beginText();
-            contentStream.newLineAtOffset(50, 700);
-            contentStream.showText("Numéro de la facture : " + storedInvoice.getId());
-            contentStream.newLineAtOffset(0, -20);
-            contentStream.showText("Nom du client : " + invoice.getName() + " " + invoice.getSurname());
-            contentStream.newLineAtOffset(0, -20);
-            contentStream.showText("Adresse : " + invoice.getAddress());
-            contentStream.newLineAtOffset(0, -20);
-            contentStream.showText("Prestation choisie : Abonnement annuel " + invoice.getPlan());
-            contentStream.newLineAtOffset(0, -20);
-            contentStream.showText("Montant payé : " + invoice.getPrice() + "€");
-            contentStream.endText();
-
-            // Ajoutez une image (décommentez et ajustez le chemin si nécessaire)
-            // PDImageXObject image = PDImageXObject.createFromFile("chemin_vers_votre_image.jpg", document);
-            // contentStream.drawImage(image, 100, 500);
-
-            contentStream.close();
-
-            // Enregistrez le document PDF
-            document.save(storedInvoice.getId() + ".pdf");
-            document.close();
-
-            File file = new File(storedInvoice.getId() + ".pdf");
-
-            // Create Minio bucket
-            try {
-                // Upload to minio
-                minioService.uploadFile(storedInvoice.getId().toString(), storedInvoice.getId() + ".pdf", file, false);
-                storedInvoice.setPdfUrl(storedInvoice.getId() + ".pdf");
-            } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
-                invoiceRepository.delete(storedInvoice);
-                throw new RuntimeException(e);
-            } finally {
-                file.delete();
-            }
+            storedInvoice = transactionTemplate.execute(status -> {
+                Invoice savedInvoice = invoiceRepository.save(invoiceToStore);
+                InvoiceOutbox outbox = new InvoiceOutbox(savedInvoice.getId(), savedInvoice.getPdfUrl(), invoice);
+                outbox.setClaimedUntil(invoiceOutboxRelay.getClaimEnd());
+                invoiceOutboxRepository.save(outbox);
+                if (idempotencyKey != null) {
+                    invoiceIdempotencyKeyRepository.save(new InvoiceIdempotencyKey(idempotencyKey, savedInvoice.getId(), requestHash));
+                }
+                return savedInvoice;
+            });
+        } finally {
+            invoiceMetrics.stop(insert, InvoiceMetrics.STAGE_DB_INSERT);
+        }
 
-            System.out.println("Facture générée avec succès.");
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw e;
+        // Cached before its upload is dispatched, the upload evicts it once the invoice is completed
+        invoiceCache.put(storedInvoice);
+
+        invoiceOutboxRelay.recordPending(1);
+        invoiceOutboxRelay.dispatch(storedInvoice.getId());
+
+        return storedInvoice;
+    }
+
+    /**
+     * Wait for the PDF of a new invoice, so that the clients creating invoices synchronously can read its URL or its
+     * PDF right after the creation, as before the PDFs were generated in the background
+     *
+     * @param invoice Created invoice
+     * @return Invoice as stored once its PDF is uploaded, or the pending invoice if it is not uploaded in time
+     */
+    public Invoice awaitGeneration(Invoice invoice) {
+        if (invoice.getStatus() != InvoiceStatus.PENDING || !invoiceOutboxRelay.awaitCompletion(invoice.getId(), syncTimeoutMs)) {
+            return invoice;
         }
+        return invoiceRepository.findById(invoice.getId()).orElse(invoice);
+    }
+
+    /**
+     * Get the generation status of an invoice
+     *
+     * @param id ID of the invoice
+     * @return Status of the invoice
+     * @throws NotFoundException If the invoice does not exist
+     */
+    public InvoiceStatusDTO getInvoiceStatus(UUID id) throws NotFoundException {
+        Invoice invoice = invoiceRepository.findById(id).orElseThrow(NotFoundException::new);
+        return new InvoiceStatusDTO(invoice.getId(), getStatus(invoice));
+    }
 
-        // TODO handle minio
+    /**
+     * Get the generation status of an invoice. Invoices created before the status was introduced are all generated.
+     *
+     * @param invoice Invoice
+     * @return Status of the invoice
+     */
+    public static InvoiceStatus getStatus(Invoice invoice) {
+        return invoice.getStatus() == null ? InvoiceStatus.COMPLETED : invoice.getStatus();
+    }
 
-        return invoiceRepository.save(storedInvoice);
+    /**
+     * Check that the invoice data contains every field printed in the PDF, and default its creation date to today
+     *
+     * @param invoice Invoice data to check
+     * @throws RuntimeException If at least one of the fields is missing
+     */
+    public void validateInvoiceData(InvoiceDataDTO invoice) throws RuntimeException {
+        if (invoice.getCreationDate() == null) {
+            invoice.setCreationDate(new Date(System.currentTimeMillis()));
+        }
+
+        if (invoice.getPrice() == 0.0 || invoice.getPlan() == null || invoice.getName() == null || invoice.getSurname() == null || invoice.getAddress() == null) {
+            throw new RuntimeException("At least one of the fields is missing");
+        }
     }
 
     /**
-     * Get the invoice PDF URL
+     * Get the location of the PDF of an invoice
      *
-     * @param id: invoice id
-     * @return invoice PDF URL
-     * @throws MinioException           if an error occurs while getting the invoice URL
-     * @throws IOException              if an error occurs while getting the invoice URL
-     * @throws NoSuchAlgorithmException if an error occurs while getting the invoice URL
-     * @throws InvalidKeyException      if an error occurs while getting the invoice URL
-     * @throws NotFoundException        if an error occurs while getting the invoice by id
+     * @param id ID of the invoice
+     * @return Bucket and object of the invoice PDF
+     * @throws NotFoundException If the invoice does not exist or has no PDF yet
      */
-    public String getInvoiceUrl(UUID id) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException, NotFoundException {
+    public ObjectLocation getInvoicePdfLocation(UUID id) throws NotFoundException {
         Invoice invoice = invoiceRepository.findById(id).orElse(null);
 
-        if (invoice == null) {
+        if (invoice == null || getStatus(invoice) != InvoiceStatus.COMPLETED) {
             throw new NotFoundException();
         }
 
-        String url = minioService.getPrivateDocumentUrl(invoice.getId().toString(), invoice.getPdfUrl()).split("http://invoice-minio:9000/")[1];
+        return invoiceStorage.getInvoiceLocation(invoice);
+    }
+
+    /**
+     * Get a page of invoices, ordered by creation date then ID
+     *
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param limit  Maximum number of invoices in the page, capped to the maximum page size
+     * @return Page of invoice summaries, with the cursor of the next page if there may be one
+     * @throws IllegalArgumentException If the cursor is invalid
+     */
+    public InvoicePageDTO getInvoicePage(String cursor, int limit) throws IllegalArgumentException {
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, maxPageSize)));
+        InvoiceCursor position = InvoiceCursor.decode(cursor);
+
+        List<InvoiceSummary> invoices = position == null
+                ? invoiceRepository.findFirstPage(page)
+                : invoiceRepository.findPageAfter(position.creationDate(), position.id(), page);
+
+        return toPage(invoices, page.getPageSize());
+    }
+
+    /**
+     * Get a page of the invoices created within a period, ordered by creation date then ID
+     *
+     * @param from   First day of the period
+     * @param to     Last day of the period
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param limit  Maximum number of invoices in the page, capped to the maximum page size
+     * @return Page of invoice summaries, with the cursor of the next page if there may be one
+     * @throws IllegalArgumentException If the cursor is invalid
+     */
+    public InvoicePageDTO getInvoicePageBetween(Date from, Date to, String cursor, int limit) throws IllegalArgumentException {
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, maxPageSize)));
+        InvoiceCursor position = InvoiceCursor.decode(cursor);
+
+        List<InvoiceSummary> invoices = position == null
+                ? invoiceRepository.findFirstPageBetween(from, to, page)
+                : invoiceRepository.findPageBetweenAfter(from, to, position.creationDate(), position.id(), page);
+
+        return toPage(invoices, page.getPageSize());
+    }
+
+    /**
+     * Build a page of invoices, with the cursor of the next page if the page is full
+     *
+     * @param invoices Invoices of the page
+     * @param pageSize Requested size of the page
+     * @return Page of invoice summaries
+     */
+    private InvoicePageDTO toPage(List<InvoiceSummary> invoices, int pageSize) {
+        String nextCursor = null;
+        if (invoices.size() == pageSize) {
+            InvoiceSummary last = invoices.get(invoices.size() - 1);
+            nextCursor = new InvoiceCursor(last.getCreationDate(), last.getId()).encode();
+        }
+        return new InvoicePageDTO(invoices, nextCursor);
+    }
+
+    /**
+     * Position of the last invoice of a page, encoded as an opaque string for the clients
+     *
+     * @param creationDate Creation date of the invoice
+     * @param id           ID of the invoice
+     */
+    private record InvoiceCursor(Date creationDate, UUID id) {
+
+        /**
+         * Decode a cursor
+         *
+         * @param cursor Encoded cursor, may be null or empty
+         * @return Decoded cursor, or null for the first page
+         * @throws IllegalArgumentException If the cursor is invalid
+         */
+        static InvoiceCursor decode(String cursor) throws IllegalArgumentException {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+            if (position.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new InvoiceCursor(Date.valueOf(position[0]), UUID.fromString(position[1]));
+        }
 
-        return "http://localhost:8090/api/v1/invoice-files/" + url;
+        /**
+         * Encode the cursor
+         *
+         * @return Encoded cursor
+         */
+        String encode() {
+            String position = creationDate + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+        }
     }
 
     /**
-     * Get all invoices
+     * Write every invoice as newline delimited JSON. The invoices are read by chunks and detached once written,
+     * so the memory used does not depend on the number of invoices.
      *
-     * @return List of all invoices
+     * @param out Stream the invoices are written to
+     * @throws IOException If an error occurs while writing the invoices
      */
-    public List<Invoice> getAllInvoices() {
-        return invoiceRepository.findAll();
+    public void writeInvoicesAsNdjson(OutputStream out) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(Invoice.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<Invoice> invoices = invoiceRepository.streamAll()) {
+                    invoices.forEach(invoice -> {
+                        try {
+                            writer.writeValue(out, invoice);
+                            out.write('\n');
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        entityManager.detach(invoice);
+                    });
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
@@ -165,16 +366,25 @@ public class InvoiceService {
      * @return Invoice with the specified ID
      */
     public Invoice getInvoiceById(UUID id) {
-        return invoiceRepository.findById(id).orElse(null);
+        return invoiceCache.get(id);
     }
 
     /**
-     * Delete the invoice with the specified ID
+     * Delete the invoice with the specified ID. Its pending upload is cancelled and a tombstone is recorded in the
+     * same transaction, the PDF is then removed from Minio in the background by the reaper.
      *
      * @param id ID of the invoice to delete
      */
     public void deleteInvoice(UUID id) {
-        invoiceRepository.deleteById(id);
+        transactionTemplate.executeWithoutResult(status -> invoiceRepository.findById(id).ifPresent(invoice -> {
+            if (invoice.getPdfUrl() != null) {
+                invoiceTombstoneRepository.save(new InvoiceTombstone(id, invoiceStorage.getInvoiceLocation(invoice)));
+            }
+            invoiceOutboxRepository.deleteAllByIdInBatch(List.of(id));
+            invoiceRepository.delete(invoice);
+        }));
+        invoiceCache.invalidate(id);
+        invoiceUrlService.evict(id);
     }
 
 }
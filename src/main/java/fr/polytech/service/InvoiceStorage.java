@@ -0,0 +1,229 @@
+package fr.polytech.service;
+
+import fr.polytech.model.Invoice;
+import fr.polytech.model.ObjectLocation;
+import fr.polytech.model.StoredPdf;
+import fr.polytech.repository.InvoiceRepository;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.MinioException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Date;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Layout of the invoice PDFs in Minio.
+ * In content-addressed mode, the PDFs are stored under their SHA-256 hash, so that identical PDFs share one object.
+ */
+@Component
+public class InvoiceStorage {
+
+    /**
+     * Prefix of the object keys, invoices are sharded by year and month of creation.
+     */
+    private static final DateTimeFormatter OBJECT_KEY_PREFIX = DateTimeFormatter.ofPattern("yyyy/MM");
+
+    /**
+     * Prefix of the keys of the content-addressed PDFs
+     */
+    private static final String CONTENT_KEY_PREFIX = "content/";
+
+    /**
+     * Key of the advisory lock guarding the content-addressed PDFs. It is held shared by the short transactions
+     * committing the invoices which reference stored PDFs, and exclusively by the reaper while it checks the references
+     * and removes the unreferenced PDFs. The PDFs are stored before the lock is taken, so a PDF removed in between is
+     * detected after the commit, see {@link #isStored(StoredPdf)}.
+     */
+    public static final long CONTENT_LOCK_ID = 0x494e564f49434550L;
+
+    private final Logger logger = LoggerFactory.getLogger(InvoiceStorage.class);
+
+    @Value("${invoice.minio.bucket:invoices}")
+    private String invoiceBucket;
+
+    /**
+     * True to store the PDFs under their hash, identical PDFs sharing one object. Disabled by default: every PDF is
+     * stored under the ID of its invoice and never removed by the reaper while it is being stored.
+     */
+    @Value("${invoice.storage.content-addressed:false}")
+    private boolean contentAddressed;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private InvoiceMetrics invoiceMetrics;
+
+    /**
+     * Create the bucket shared by all the invoices once the application is started
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createInvoiceBucket() {
+        try {
+            minioService.createBucketIfNotExists(invoiceBucket, false);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Could not create the invoice bucket " + invoiceBucket + ", it will be created on first upload", e);
+        }
+    }
+
+    /**
+     * Get the key of the PDF of an invoice in the invoice bucket
+     *
+     * @param id           ID of the invoice
+     * @param creationDate Creation date of the invoice
+     * @return Object key, as yyyy/MM/id.pdf
+     */
+    public String getObjectKey(UUID id, Date creationDate) {
+        return creationDate.toLocalDate().format(OBJECT_KEY_PREFIX) + "/" + id + ".pdf";
+    }
+
+    /**
+     * Get the key of a content-addressed PDF in the invoice bucket
+     *
+     * @param contentHash Hex encoded SHA-256 hash of the PDF
+     * @return Object key, as content/ab/abcdef....pdf
+     */
+    public String getContentKey(String contentHash) {
+        return CONTENT_KEY_PREFIX + contentHash.substring(0, 2) + "/" + contentHash + ".pdf";
+    }
+
+    /**
+     * Check whether an object of the invoice bucket is a content-addressed PDF, which may be shared by several invoices
+     *
+     * @param objectKey Key of the object
+     * @return True if the key is the key of a content-addressed PDF
+     */
+    public boolean isContentKey(String objectKey) {
+        return objectKey.startsWith(CONTENT_KEY_PREFIX);
+    }
+
+    /**
+     * Take the content lock shared within the current transaction, so that the reaper does not remove a PDF while the
+     * transaction records an invoice referencing it. The transaction must not store PDFs, so that the lock is only held
+     * for the database updates.
+     */
+    public void lockContent() {
+        if (contentAddressed) {
+            invoiceRepository.lockShared(CONTENT_LOCK_ID);
+        }
+    }
+
+    /**
+     * Store the PDF of an invoice, outside any transaction. In content-addressed mode the PDF is not uploaded if an
+     * identical one is already stored, and it may be removed by the reaper until the invoice referencing it is
+     * committed, which {@link #isStored(StoredPdf)} checks after the commit.
+     *
+     * @param objectKey Key of the PDF when the content-addressed mode is disabled
+     * @param buffer    Buffer holding the PDF
+     * @return Key, hash and size of the stored PDF
+     * @throws MinioException           If an error occurs while uploading the PDF
+     * @throws IOException              If an I/O error occurs
+     * @throws NoSuchAlgorithmException If the algorithm SHA-256 is not available
+     * @throws InvalidKeyException      If the Minio credentials are invalid
+     */
+    public StoredPdf storePdf(String objectKey, PdfBuffer buffer) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        buffer.updateDigest(digest);
+        String contentHash = HexFormat.of().formatHex(digest.digest());
+
+        if (!contentAddressed) {
+            minioService.uploadFile(invoiceBucket, objectKey, buffer.toInputStream(), buffer.size(), "application/pdf", false);
+            return new StoredPdf(objectKey, contentHash, buffer.size());
+        }
+
+        String contentKey = getContentKey(contentHash);
+        if (isStored(contentKey, buffer.size())) {
+            invoiceMetrics.recordDeduplicatedPdf();
+        } else {
+            minioService.uploadFile(invoiceBucket, contentKey, buffer.toInputStream(), buffer.size(), "application/pdf", false);
+        }
+        return new StoredPdf(contentKey, contentHash, buffer.size());
+    }
+
+    /**
+     * Check whether a PDF is still stored once the invoice referencing it is committed. A content-addressed PDF may
+     * have been removed by the reaper between its storage and the commit; once committed, it is not removed any more.
+     *
+     * @param pdf Stored PDF
+     * @return True if the PDF is stored, always true for a PDF stored under the ID of its invoice
+     * @throws MinioException           If an error occurs while reading the metadata of the object
+     * @throws IOException              If an I/O error occurs
+     * @throws NoSuchAlgorithmException If an algorithm is not available
+     * @throws InvalidKeyException      If the Minio credentials are invalid
+     */
+    public boolean isStored(StoredPdf pdf) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return !isContentKey(pdf.objectKey()) || isStored(pdf.objectKey(), pdf.contentSize());
+    }
+
+    /**
+     * Check whether a content-addressed PDF is already stored
+     *
+     * @param contentKey Key of the PDF
+     * @param size       Size of the PDF, an object of another size is a partial upload and is overwritten
+     * @return True if the PDF is stored
+     * @throws MinioException           If an error occurs while reading the metadata of the object
+     * @throws IOException              If an I/O error occurs
+     * @throws NoSuchAlgorithmException If an algorithm is not available
+     * @throws InvalidKeyException      If the Minio credentials are invalid
+     */
+    private boolean isStored(String contentKey, long size) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            return minioService.statObject(invoiceBucket, contentKey).size() == size;
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the location of the PDF of an invoice in Minio.
+     * Invoices created before the shared bucket was introduced are stored in a bucket named after their ID.
+     *
+     * @param invoice Invoice to locate
+     * @return Bucket and object of the invoice PDF
+     */
+    public ObjectLocation getInvoiceLocation(Invoice invoice) {
+        return getInvoiceLocation(invoice.getId(), invoice.getPdfUrl());
+    }
+
+    /**
+     * Get the location of the PDF of an invoice in Minio from its ID and stored key.
+     *
+     * @param id     ID of the invoice
+     * @param pdfUrl Key of the invoice PDF, as stored with the invoice
+     * @return Bucket and object of the invoice PDF
+     */
+    public ObjectLocation getInvoiceLocation(UUID id, String pdfUrl) {
+        if (pdfUrl.contains("/")) {
+            return new ObjectLocation(invoiceBucket, pdfUrl);
+        }
+        return new ObjectLocation(id.toString(), pdfUrl);
+    }
+
+    /**
+     * Get the name of the bucket shared by all the invoices
+     *
+     * @return Name of the invoice bucket
+     */
+    public String getInvoiceBucket() {
+        return invoiceBucket;
+    }
+}
@@ -0,0 +1,133 @@
+package fr.polytech.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.polytech.config.MinioProperties;
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.ObjectLocation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.minio.errors.MinioException;
+import jakarta.annotation.PostConstruct;
+import jakarta.ws.rs.NotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Service providing the download URLs of the invoices. The presigned URLs are cached per invoice until shortly
+ * before they expire, so that repeated downloads neither query the database nor sign a new URL.
+ */
+@Service
+public class InvoiceUrlService {
+
+    @Autowired
+    private InvoiceStorage invoiceStorage;
+
+    @Autowired
+    private InvoiceCache invoiceCache;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private MinioProperties minioProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${invoice.url.public-base-url:http://localhost:8090/api/v1/invoice-files/}")
+    private String publicBaseUrl;
+
+    @Value("${invoice.url.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    /**
+     * URLs are evicted this long before they expire, so that a client always gets time to use them.
+     */
+    @Value("${invoice.url.cache.safety-margin-seconds:600}")
+    private long safetyMarginSeconds;
+
+    private Cache<UUID, String> urlCache;
+
+    /**
+     * Prefix of the presigned URLs returned by Minio, replaced by the public base URL.
+     */
+    private String minioUrlPrefix;
+
+    /**
+     * Initialize the cache of URLs and expose its statistics.
+     */
+    @PostConstruct
+    public void initUrlCache() {
+        minioUrlPrefix = minioProperties.getEndpoint() + "/";
+
+        urlCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(MinioService.PRESIGNED_URL_EXPIRY.minus(Duration.ofSeconds(safetyMarginSeconds)))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, urlCache, "invoice.urls");
+    }
+
+    /**
+     * Get the invoice PDF URL
+     *
+     * @param id: invoice id
+     * @return invoice PDF URL
+     * @throws MinioException           if an error occurs while getting the invoice URL
+     * @throws IOException              if an error occurs while getting the invoice URL
+     * @throws NoSuchAlgorithmException if an error occurs while getting the invoice URL
+     * @throws InvalidKeyException      if an error occurs while getting the invoice URL
+     * @throws NotFoundException        if an error occurs while getting the invoice by id
+     */
+    public String getInvoiceUrl(UUID id) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException, NotFoundException {
+        String cachedUrl = urlCache.getIfPresent(id);
+        if (cachedUrl != null) {
+            return cachedUrl;
+        }
+
+        Invoice invoice = invoiceCache.get(id);
+
+        if (invoice == null || InvoiceService.getStatus(invoice) != InvoiceStatus.COMPLETED) {
+            throw new NotFoundException();
+        }
+
+        ObjectLocation location = invoiceStorage.getInvoiceLocation(invoice);
+        String url = toPublicUrl(minioService.getPrivateDocumentUrl(location.bucket(), location.object()));
+
+        urlCache.put(id, url);
+
+        return url;
+    }
+
+    /**
+     * Forget the URL of an invoice, when it is deleted or its PDF is moved
+     *
+     * @param id: invoice id
+     */
+    public void evict(UUID id) {
+        urlCache.invalidate(id);
+    }
+
+    /**
+     * Rewrite a presigned URL so that it goes through the public base URL instead of the internal Minio endpoint
+     *
+     * @param url: presigned URL returned by Minio
+     * @return public URL
+     */
+    private String toPublicUrl(String url) {
+        if (!url.startsWith(minioUrlPrefix)) {
+            return url;
+        }
+        return publicBaseUrl + url.substring(minioUrlPrefix.length());
+    }
+}
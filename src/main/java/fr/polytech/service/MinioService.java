@@ -1,20 +1,44 @@
 package fr.polytech.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.polytech.config.MinioProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
 import io.minio.errors.MinioException;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -25,14 +49,106 @@ public class MinioService {
 
     private final Logger logger = LoggerFactory.getLogger(MinioService.class);
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${minio.bucket-cache.max-size:1000}")
+    private long bucketCacheMaxSize;
+
+    @Value("${minio.bucket-cache.ttl-seconds:600}")
+    private long bucketCacheTtlSeconds;
+
+    /**
+     * Buckets known to exist, so that uploads do not check the bucket on every call.
+     */
+    private Cache<String, Boolean> knownBuckets;
+
+    /**
+     * Validity of the presigned URLs.
+     */
+    public static final Duration PRESIGNED_URL_EXPIRY = Duration.ofHours(2);
+
+    /**
+     * Client of the MinIO server, configured by MinioConfig. Injected as a proxy, so that the client and its HTTP
+     * client are only built by the first request to MinIO.
+     */
+    @Autowired
+    @Lazy
+    private MinioClient minioClient;
+
+    @Autowired
+    private MinioProperties minioProperties;
+
+    @Autowired
+    private ThreadPoolTaskExecutor minioPartUploadExecutor;
+
+    /**
+     * Smallest part accepted by the server, except for the last part of an object.
+     */
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    /**
+     * Number of requests sent to Minio and not answered yet.
+     */
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    /**
+     * Call to the Minio client, timed by {@link #timed(String, MinioCall)}.
+     *
+     * @param <T> The type of the result of the call.
+     */
+    @FunctionalInterface
+    private interface MinioCall<T> {
+        T execute() throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException;
+    }
+
     /**
-     * Initialize minioClient with MinIO server.
+     * Initialize the cache of known buckets and expose its statistics.
      */
-    private final MinioClient minioClient = MinioClient.builder()
-            .endpoint("http://invoice-minio:9000")
-            .credentials("invoice", "invoiceinvoice")
-            .region("europe")
-            .build();
+    @PostConstruct
+    public void initBucketCache() {
+        knownBuckets = Caffeine.newBuilder()
+                .maximumSize(bucketCacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(bucketCacheTtlSeconds))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, knownBuckets, "minio.buckets");
+
+        Gauge.builder("minio.client.in-flight", inFlightRequests, AtomicInteger::get)
+                .description("Requests sent to Minio and not answered yet")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Time a call to the Minio client, tagged by operation and outcome.
+     *
+     * @param operation: The name of the operation.
+     * @param call:      The call to time.
+     * @return The result of the call.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    private <T> T timed(String operation, MinioCall<T> call) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        inFlightRequests.incrementAndGet();
+        String outcome = "error";
+        try {
+            T result = call.execute();
+            outcome = "success";
+            return result;
+        } finally {
+            inFlightRequests.decrementAndGet();
+            sample.stop(Timer.builder("minio.client.requests")
+                    .description("Duration of the requests sent to Minio")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
 
     /**
      * Create a public bucket in Minio.
@@ -123,23 +239,29 @@ public class MinioService {
     private void createBucket(String bucketName, String config) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
 
         // Create a new bucket.
-        minioClient.makeBucket(
-                MakeBucketArgs
-                        .builder()
-                        .bucket(bucketName)
-                        .region("europe")
-                        .build()
-        );
+        timed("makeBucket", () -> {
+            minioClient.makeBucket(
+                    MakeBucketArgs
+                            .builder()
+                            .bucket(bucketName)
+                            .region(minioProperties.getRegion())
+                            .build()
+            );
+            return null;
+        });
 
         // Setting the bucket policy.
-        minioClient.setBucketPolicy(
-                SetBucketPolicyArgs
-                        .builder()
-                        .bucket(bucketName)
-                        .config(config)
-                        .region("europe")
-                        .build()
-        );
+        timed("setBucketPolicy", () -> {
+            minioClient.setBucketPolicy(
+                    SetBucketPolicyArgs
+                            .builder()
+                            .bucket(bucketName)
+                            .config(config)
+                            .region(minioProperties.getRegion())
+                            .build()
+            );
+            return null;
+        });
     }
 
 
@@ -154,7 +276,7 @@ public class MinioService {
      * @throws InvalidKeyException      if the key is invalid.
      */
     private boolean bucketExists(String bucketName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
-        return minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucketName).build());
+        return timed("bucketExists", () -> minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucketName).build()));
     }
 
     /**
@@ -167,7 +289,11 @@ public class MinioService {
      * @throws NoSuchAlgorithmException if an algorithm is not available.
      * @throws InvalidKeyException      if the key is invalid.
      */
-    private void createBucketIfNotExists(String bucketName, boolean isPublic) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+    public void createBucketIfNotExists(String bucketName, boolean isPublic) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        if (knownBuckets.getIfPresent(bucketName) != null) {
+            return;
+        }
+
         if (!bucketExists(bucketName)) {
             if (isPublic) {
                 createPublicBucket(bucketName);
@@ -175,10 +301,24 @@ public class MinioService {
                 createPrivateBucket(bucketName);
             }
         }
+
+        knownBuckets.put(bucketName, Boolean.TRUE);
+    }
+
+    /**
+     * Forget a bucket if Minio reported that it does not exist anymore.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param e:          The error returned by Minio.
+     */
+    private void forgetMissingBucket(String bucketName, ErrorResponseException e) {
+        if ("NoSuchBucket".equals(e.errorResponse().code())) {
+            knownBuckets.invalidate(bucketName);
+        }
     }
 
     /**
-     * Upload a file to Minio.
+     * Upload a file to Minio. The size of the file is known, so it is streamed without being loaded in memory.
      *
      * @param bucketName:    The name of the bucket.
      * @param objectName:    The name of the object.
@@ -196,51 +336,279 @@ public class MinioService {
         InputStream fileInputStream = multipartFile.getInputStream();
 
         // Upload the file to the bucket with putObject.
-        minioClient.putObject(
-                PutObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .contentType(multipartFile.getContentType()) // Définissez le type de contenu si nécessaire.
-                        .stream(fileInputStream, fileInputStream.available(), -1)
-                        .build());
+        try {
+            timed("putObject", () -> minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .contentType(multipartFile.getContentType()) // Définissez le type de contenu si nécessaire.
+                            .stream(fileInputStream, multipartFile.getSize(), -1)
+                            .build()));
+        } catch (ErrorResponseException e) {
+            forgetMissingBucket(bucketName, e);
+            throw e;
+        } finally {
+            // Close the file stream.
+            fileInputStream.close();
+        }
 
-        // Close the file stream.
-        fileInputStream.close();
+        logger.info("Completed the upload of a file to Minio");
+    }
+
+    /**
+     * Upload a stream of known length to Minio.
+     *
+     * @param bucketName:  The name of the bucket.
+     * @param objectName:  The name of the object.
+     * @param stream:      The stream to upload, it is not closed by this method.
+     * @param size:        The exact number of bytes to read from the stream.
+     * @param contentType: The content type of the object.
+     * @throws IOException              If an I/O error occurs.
+     * @throws NoSuchAlgorithmException If the algorithm SHA-256 is not available.
+     * @throws InvalidKeyException      If the key is invalid.
+     */
+    public void uploadFile(String bucketName, String objectName, InputStream stream, long size, String contentType, boolean isPublicFile) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
+        logger.info("Starting the upload of a file to Minio");
+
+        createBucketIfNotExists(bucketName, isPublicFile);
+
+        // Upload the stream to the bucket with putObject, the size is known so a single PUT is enough.
+        try {
+            timed("putObject", () -> minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .contentType(contentType)
+                            .stream(stream, size, -1)
+                            .build()));
+        } catch (ErrorResponseException e) {
+            forgetMissingBucket(bucketName, e);
+            throw e;
+        }
 
         logger.info("Completed the upload of a file to Minio");
     }
 
     /**
-     * Upload a file to Minio.
+     * Upload a PDF held in memory to Minio.
      *
      * @param bucketName: The name of the bucket.
      * @param objectName: The name of the object.
-     * @param file:       The file to upload.
+     * @param content:    The content of the PDF.
      * @throws IOException              If an I/O error occurs.
      * @throws NoSuchAlgorithmException If the algorithm SHA-256 is not available.
      * @throws InvalidKeyException      If the key is invalid.
      */
-    public void uploadFile(String bucketName, String objectName, File file, boolean isPublicFile) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
-        logger.info("Starting the upload of a file to Minio");
+    public void uploadFile(String bucketName, String objectName, byte[] content, boolean isPublicFile) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
+        uploadFile(bucketName, objectName, new ByteArrayInputStream(content), content.length, "application/pdf", isPublicFile);
+    }
+
+    /**
+     * Upload a stream of unknown length to Minio. A stream shorter than a part is uploaded by a single PUT,
+     * a longer one is cut into parts uploaded in parallel and assembled server side. At most
+     * minio.max-parts-in-flight parts are held in memory at once.
+     *
+     * @param bucketName:  The name of the bucket.
+     * @param objectName:  The name of the object.
+     * @param stream:      The stream to upload, read until its end and not closed by this method.
+     * @param contentType: The content type of the object.
+     * @throws IOException              If an I/O error occurs.
+     * @throws NoSuchAlgorithmException If the algorithm SHA-256 is not available.
+     * @throws InvalidKeyException      If the key is invalid.
+     */
+    public void uploadStream(String bucketName, String objectName, InputStream stream, String contentType, boolean isPublicFile) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
+        int partSize = (int) Math.max(MIN_PART_SIZE, minioProperties.getPartSize().toBytes());
+
+        // A permit is taken before reading a part and given back once the part is uploaded, bounding the memory used.
+        Semaphore window = new Semaphore(minioProperties.getMaxPartsInFlight());
+        window.acquireUninterruptibly();
+        byte[] part = stream.readNBytes(partSize);
+
+        if (part.length < partSize) {
+            uploadFile(bucketName, objectName, new ByteArrayInputStream(part), part.length, contentType, isPublicFile);
+            return;
+        }
+
+        logger.info("Starting the multipart upload of a stream to Minio");
 
         createBucketIfNotExists(bucketName, isPublicFile);
 
-        // Get the input stream from the File object.
-        FileInputStream fileInputStream = new FileInputStream(file);
+        String uploadId = UUID.randomUUID().toString();
+        List<String> partNames = new ArrayList<>();
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+            while (part.length > 0 && failure.get() == null) {
+                String partName = objectName + ".part-" + uploadId + "-" + partNames.size();
+                byte[] content = part;
+                partNames.add(partName);
+                uploads.add(CompletableFuture
+                        .runAsync(() -> uploadPart(bucketName, partName, content), minioPartUploadExecutor)
+                        .whenComplete((result, e) -> {
+                            if (e != null) {
+                                failure.compareAndSet(null, e.getCause() != null ? e.getCause() : e);
+                            }
+                            window.release();
+                        }));
+
+                window.acquireUninterruptibly();
+                part = stream.readNBytes(partSize);
+            }
 
-        // Upload the file to the bucket with putObject.
-        minioClient.putObject(
-                PutObjectArgs.builder()
+            try {
+                CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                throw unwrap(failure.get() != null ? failure.get() : e.getCause());
+            }
+
+            // The parts are assembled server side, so the content is not sent twice.
+            List<ComposeSource> sources = new ArrayList<>(partNames.size());
+            for (String partName : partNames) {
+                sources.add(ComposeSource.builder().bucket(bucketName).object(partName).build());
+            }
+            timed("composeObject", () -> minioClient.composeObject(
+                    ComposeObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .sources(sources)
+                            .headers(Map.of("Content-Type", contentType))
+                            .build()));
+        } finally {
+            // Wait for the uploads still running before removing their parts.
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+            removeParts(bucketName, partNames);
+        }
+
+        logger.info("Completed the multipart upload of a stream to Minio in " + partNames.size() + " parts");
+    }
+
+    /**
+     * Upload a part of a streamed object as a temporary object.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param partName:   The name of the temporary object.
+     * @param content:    The content of the part.
+     */
+    private void uploadPart(String bucketName, String partName, byte[] content) {
+        try {
+            timed("putObject", () -> minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(partName)
+                            .stream(new ByteArrayInputStream(content), content.length, -1)
+                            .build()));
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Remove the temporary objects of a multipart upload, the errors are only logged.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param partNames:  The names of the temporary objects.
+     */
+    private void removeParts(String bucketName, List<String> partNames) {
+        for (String partName : partNames) {
+            try {
+                deleteFileFromPrivateBucket(bucketName, partName);
+            } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+                logger.warn("Could not remove the part " + partName + " from Minio", e);
+            }
+        }
+    }
+
+    /**
+     * Rethrow the failure of a part upload with its original type.
+     *
+     * @param e: The failure.
+     * @return Never returns, the return type lets callers write {@code throw unwrap(e)}.
+     */
+    private static MinioException unwrap(Throwable e) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof MinioException minioException) {
+            throw minioException;
+        }
+        if (e instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (e instanceof NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw noSuchAlgorithmException;
+        }
+        if (e instanceof InvalidKeyException invalidKeyException) {
+            throw invalidKeyException;
+        }
+        if (e instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new RuntimeException(e);
+    }
+
+    /**
+     * Get the metadata of an object, such as its size, ETag and last modification date.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @return The metadata of the object.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    public StatObjectResponse statObject(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return timed("statObject", () -> minioClient.statObject(
+                StatObjectArgs
+                        .builder()
                         .bucket(bucketName)
                         .object(objectName)
-                        .contentType("application/pdf")
-                        .stream(fileInputStream, fileInputStream.available(), -1)
-                        .build());
+                        .build()));
+    }
 
-        // Close the file stream.
-        fileInputStream.close();
+    /**
+     * Open a stream on an object. The caller must close the stream.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @return The content of the object, read from the server as it is consumed.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    public InputStream getObject(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return timed("getObject", () -> minioClient.getObject(
+                GetObjectArgs
+                        .builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .build()));
+    }
 
-        logger.info("Completed the upload of a file to Minio");
+    /**
+     * Open a stream on a range of an object. The caller must close the stream.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @param offset:     The position of the first byte to read.
+     * @param length:     The number of bytes to read.
+     * @return The content of the object, read from the server as it is consumed.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    public InputStream getObject(String bucketName, String objectName, long offset, long length) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return timed("getObject", () -> minioClient.getObject(
+                GetObjectArgs
+                        .builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .offset(offset)
+                        .length(length)
+                        .build()));
     }
 
     /**
@@ -258,21 +626,117 @@ public class MinioService {
 //        Map<String, String> reqParams = new HashMap<String, String>();
 //        reqParams.put("response-content-type", "application/json");
 
-        url = minioClient.getPresignedObjectUrl(
+        url = timed("presign", () -> minioClient.getPresignedObjectUrl(
                 GetPresignedObjectUrlArgs.builder()
                         .method(Method.GET)
-                        .region("europe")
+                        .region(minioProperties.getRegion())
                         .bucket(bucket)
                         .object(object)
 //                            .extraHeaders()
-                        .expiry(2, TimeUnit.HOURS)
-                        .build());
+                        .expiry((int) PRESIGNED_URL_EXPIRY.toSeconds())
+                        .build()));
 
         logger.info("Completed getting the private URL of an object in Minio");
 
         return url;
     }
 
+    /**
+     * Copy an object to another location, server side.
+     *
+     * @param sourceBucket: The name of the bucket to copy from.
+     * @param sourceObject: The name of the object to copy.
+     * @param targetBucket: The name of the bucket to copy to.
+     * @param targetObject: The name of the copied object.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    public void copyObject(String sourceBucket, String sourceObject, String targetBucket, String targetObject) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        timed("copyObject", () -> minioClient.copyObject(
+                CopyObjectArgs
+                        .builder()
+                        .bucket(targetBucket)
+                        .object(targetObject)
+                        .source(CopySource
+                                .builder()
+                                .bucket(sourceBucket)
+                                .object(sourceObject)
+                                .build())
+                        .build()));
+    }
+
+    /**
+     * Remove several objects of a bucket with multi-object delete requests of up to 1000 objects.
+     * Objects which do not exist anymore are considered removed.
+     *
+     * @param bucketName:  The name of the bucket.
+     * @param objectNames: The names of the objects, at most 1000 are sent per request.
+     * @return The names of the objects which could not be removed.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    public List<String> removeObjects(String bucketName, List<String> objectNames) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        List<DeleteObject> objects = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            objects.add(new DeleteObject(objectName));
+        }
+
+        // The requests are sent lazily while the results are iterated.
+        return timed("removeObjects", () -> {
+            List<String> failed = new ArrayList<>();
+            for (Result<DeleteError> result : minioClient.removeObjects(
+                    RemoveObjectsArgs
+                            .builder()
+                            .bucket(bucketName)
+                            .objects(objects)
+                            .build())) {
+                DeleteError error = result.get();
+                if (!"NoSuchKey".equals(error.code())) {
+                    logger.warn("Could not remove " + error.objectName() + " from " + bucketName + ": " + error.message());
+                    failed.add(error.objectName());
+                }
+            }
+            return failed;
+        });
+    }
+
+    /**
+     * List the objects of a bucket recursively, in the byte order of their names.
+     * The objects are fetched from the server page by page while the results are iterated.
+     *
+     * @param bucketName: The name of the bucket.
+     * @return The objects of the bucket.
+     */
+    public Iterable<Result<Item>> listObjects(String bucketName) {
+        return minioClient.listObjects(
+                ListObjectsArgs
+                        .builder()
+                        .bucket(bucketName)
+                        .recursive(true)
+                        .build());
+    }
+
+    /**
+     * Remove an empty bucket.
+     *
+     * @param bucketName: The name of the bucket.
+     * @throws MinioException           if an error occurs.
+     * @throws IOException              if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException      if the key is invalid.
+     */
+    public void removeBucket(String bucketName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        timed("removeBucket", () -> {
+            minioClient.removeBucket(RemoveBucketArgs.builder().bucket(bucketName).build());
+            return null;
+        });
+        knownBuckets.invalidate(bucketName);
+    }
+
     /**
      * Delete a file from a bucket.
      *
@@ -284,11 +748,14 @@ public class MinioService {
      * @throws InvalidKeyException      if the key is invalid.
      */
     public void deleteFileFromPrivateBucket(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
-        minioClient.removeObject(
-                RemoveObjectArgs
-                        .builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .build());
+        timed("removeObject", () -> {
+            minioClient.removeObject(
+                    RemoveObjectArgs
+                            .builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .build());
+            return null;
+        });
     }
 }
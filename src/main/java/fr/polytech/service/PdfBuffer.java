@@ -0,0 +1,105 @@
+package fr.polytech.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Growable in-memory buffer the invoice PDFs are rendered into.
+ * Unlike ByteArrayOutputStream, it is not synchronized and exposes its content without copying it.
+ */
+public class PdfBuffer extends OutputStream {
+
+    private byte[] buf;
+
+    private int count;
+
+    /**
+     * Create a buffer with the given initial capacity.
+     *
+     * @param initialCapacity Initial capacity in bytes
+     */
+    public PdfBuffer(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count] = (byte) b;
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Grow the backing array so that it can hold at least minCapacity bytes.
+     *
+     * @param minCapacity Minimum capacity needed
+     */
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(minCapacity, buf.length << 1));
+        }
+    }
+
+    /**
+     * Get the number of bytes written in the buffer
+     *
+     * @return Number of bytes written
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the capacity of the backing array
+     *
+     * @return Capacity in bytes
+     */
+    public int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * Discard the content of the buffer while keeping the backing array for reuse.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Get a stream reading the content of the buffer without copying it.
+     * The stream must not be used once the buffer has been reset.
+     *
+     * @return InputStream over the written bytes
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    /**
+     * Feed the content of the buffer to a digest without copying it
+     *
+     * @param digest Digest to update
+     */
+    public void updateDigest(MessageDigest digest) {
+        digest.update(buf, 0, count);
+    }
+
+    /**
+     * Get a copy of the content of the buffer
+     *
+     * @return Written bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+}
@@ -0,0 +1,64 @@
+package fr.polytech.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of rendering buffers reused between invoices, so that a PDF does not need a new array for every request.
+ */
+@Component
+public class PdfBufferPool {
+
+    /**
+     * Initial capacity of a buffer, a generated invoice is usually smaller than this.
+     */
+    static final int INITIAL_CAPACITY = 8 * 1024;
+
+    /**
+     * Buffers which grew beyond this capacity are dropped instead of being pooled.
+     */
+    static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    /**
+     * Maximum number of idle buffers kept in the pool.
+     */
+    static final int MAX_POOLED_BUFFERS = 64;
+
+    private final Queue<PdfBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Take a buffer from the pool, or create one if the pool is empty.
+     *
+     * @return Empty buffer
+     */
+    public PdfBuffer acquire() {
+        PdfBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return new PdfBuffer(INITIAL_CAPACITY);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool.
+     *
+     * @param buffer Buffer to release, its content is discarded
+     */
+    public void release(PdfBuffer buffer) {
+        if (buffer == null || buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.reset();
+        buffers.offer(buffer);
+    }
+}
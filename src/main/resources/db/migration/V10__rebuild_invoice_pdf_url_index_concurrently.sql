@@ -0,0 +1,10 @@
+-- Rebuild the byte ordered index of the keys of V5, used by the reconciliation with the bucket, without blocking the
+-- writes to the invoices. This migration runs outside a transaction, see its .conf file.
+-- A failed concurrent build leaves an invalid index behind, this migration drops it when run again.
+DROP INDEX CONCURRENTLY IF EXISTS public.invoice_pdf_url_c_idx_new;
+
+CREATE INDEX CONCURRENTLY invoice_pdf_url_c_idx_new ON public.invoice (pdf_url COLLATE "C");
+
+DROP INDEX CONCURRENTLY IF EXISTS public.invoice_pdf_url_c_idx;
+
+ALTER INDEX public.invoice_pdf_url_c_idx_new RENAME TO invoice_pdf_url_c_idx;
@@ -0,0 +1,22 @@
+-- Schema previously created by Hibernate, kept idempotent so that existing databases can be baselined
+CREATE TABLE IF NOT EXISTS public.invoice
+(
+    id            uuid NOT NULL PRIMARY KEY,
+    creation_date date,
+    pdf_url       varchar(255)
+);
+
+ALTER TABLE public.invoice
+    ADD COLUMN IF NOT EXISTS status varchar(255);
+
+CREATE TABLE IF NOT EXISTS public.invoice_job
+(
+    id            uuid             NOT NULL PRIMARY KEY,
+    created_at    timestamp(6),
+    creation_date date,
+    name          varchar(255),
+    surname       varchar(255),
+    address       varchar(255),
+    plan          varchar(255),
+    price         double precision NOT NULL
+);
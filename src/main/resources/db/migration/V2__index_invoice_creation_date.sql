@@ -0,0 +1,3 @@
+-- Serves the keyset pagination and the time-range queries, the included columns allow index-only scans
+CREATE INDEX IF NOT EXISTS invoice_creation_date_id_idx
+    ON public.invoice (creation_date, id) INCLUDE (pdf_url, status);
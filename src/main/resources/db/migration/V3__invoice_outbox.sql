@@ -0,0 +1,19 @@
+-- The job queue becomes an outbox: the PDF key is decided when the invoice is inserted and failed uploads are retried
+ALTER TABLE public.invoice_job
+    RENAME TO invoice_outbox;
+
+ALTER TABLE public.invoice_outbox
+    ADD COLUMN object_key      varchar(255),
+    ADD COLUMN attempts        integer NOT NULL DEFAULT 0,
+    ADD COLUMN next_attempt_at timestamp(6);
+
+UPDATE public.invoice_outbox
+SET object_key      = to_char(creation_date, 'YYYY/MM') || '/' || id || '.pdf',
+    next_attempt_at = created_at;
+
+UPDATE public.invoice i
+SET pdf_url = o.object_key
+FROM public.invoice_outbox o
+WHERE i.id = o.id;
+
+CREATE INDEX invoice_outbox_next_attempt_at_idx ON public.invoice_outbox (next_attempt_at);
@@ -0,0 +1,9 @@
+-- Idempotency keys of the invoice creations, scoped by the principal who sent them
+CREATE TABLE IF NOT EXISTS public.invoice_idempotency_key
+(
+    id         varchar(512) NOT NULL PRIMARY KEY,
+    invoice_id uuid         NOT NULL REFERENCES public.invoice (id) ON DELETE CASCADE,
+    created_at timestamp(6) NOT NULL
+);
+
+CREATE INDEX invoice_idempotency_key_created_at_idx ON public.invoice_idempotency_key (created_at);
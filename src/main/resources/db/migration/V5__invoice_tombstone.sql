@@ -0,0 +1,13 @@
+-- PDFs of the deleted invoices, removed from Minio in the background
+CREATE TABLE IF NOT EXISTS public.invoice_tombstone
+(
+    id         uuid         NOT NULL PRIMARY KEY,
+    bucket     varchar(255) NOT NULL,
+    object_key varchar(255) NOT NULL,
+    deleted_at timestamp(6) NOT NULL
+);
+
+CREATE INDEX invoice_tombstone_deleted_at_idx ON public.invoice_tombstone (deleted_at);
+
+-- Byte order of the keys, the order in which Minio lists the objects, for the reconciliation with the bucket
+CREATE INDEX invoice_pdf_url_c_idx ON public.invoice (pdf_url COLLATE "C");
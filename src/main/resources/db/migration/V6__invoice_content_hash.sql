@@ -0,0 +1,3 @@
+-- Hash and size of the stored PDF, unknown for the invoices generated before they were recorded
+ALTER TABLE public.invoice ADD COLUMN IF NOT EXISTS content_hash char(64);
+ALTER TABLE public.invoice ADD COLUMN IF NOT EXISTS content_size bigint;
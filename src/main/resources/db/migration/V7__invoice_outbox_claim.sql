@@ -0,0 +1,3 @@
+-- Lease of the instance processing a pending upload, so that the relays of several instances do not process it twice
+ALTER TABLE public.invoice_outbox
+    ADD COLUMN IF NOT EXISTS claimed_until timestamp(6);
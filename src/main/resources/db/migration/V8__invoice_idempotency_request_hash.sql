@@ -0,0 +1,4 @@
+-- Hash of the request which recorded the key, a key reused with another request is rejected.
+-- Unknown for the keys recorded before, which are not checked.
+ALTER TABLE public.invoice_idempotency_key
+    ADD COLUMN IF NOT EXISTS request_hash char(64);
@@ -0,0 +1,11 @@
+-- Rebuild the index of V2 without blocking the writes to the invoices: the new index is built concurrently, then
+-- replaces the previous one. This migration runs outside a transaction, see its .conf file.
+-- A failed concurrent build leaves an invalid index behind, this migration drops it when run again.
+DROP INDEX CONCURRENTLY IF EXISTS public.invoice_creation_date_id_idx_new;
+
+CREATE INDEX CONCURRENTLY invoice_creation_date_id_idx_new
+    ON public.invoice (creation_date, id) INCLUDE (pdf_url, status);
+
+DROP INDEX CONCURRENTLY IF EXISTS public.invoice_creation_date_id_idx;
+
+ALTER INDEX public.invoice_creation_date_id_idx_new RENAME TO invoice_creation_date_id_idx;
@@ -0,0 +1,205 @@
+package fr.polytech.config;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.JWKSetBasedJWKSource;
+import com.nimbusds.jose.jwk.source.JWKSetCacheRefreshEvaluator;
+import com.nimbusds.jose.jwk.source.JWKSetSource;
+import com.nimbusds.jose.jwk.source.RefreshAheadCachingJWKSetSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The decoder against a stub JWK endpoint: the keys are fetched at startup, refreshed in the background before they
+ * expire, and the last known keys keep being used while the endpoint fails. The cache is queried at explicit times,
+ * so that no test depends on the time it takes.
+ */
+class JwtDecoderConfigTest {
+
+    private static final String ISSUER = "http://localhost/realms/test";
+
+    private static final long CACHE_TTL_SECONDS = 300;
+
+    private static final long REFRESH_AHEAD_SECONDS = 30;
+
+    /**
+     * Maximum time of a fetch in the background, far above its actual duration
+     */
+    private static final Duration BACKGROUND_FETCH_TIMEOUT = Duration.ofSeconds(30);
+
+    private HttpServer jwksServer;
+
+    private JWKSetBasedJWKSource<SecurityContext> jwkSource;
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    private final AtomicReference<RSAKey> servedKey = new AtomicReference<>();
+
+    @BeforeEach
+    void startJwksServer() throws IOException, JOSEException {
+        servedKey.set(generateKey("key-1"));
+
+        jwksServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        jwksServer.createContext("/certs", this::serveKeys);
+        jwksServer.start();
+    }
+
+    @AfterEach
+    void stopJwksServer() throws IOException {
+        if (jwkSource != null) {
+            jwkSource.close();
+        }
+        jwksServer.stop(0);
+    }
+
+    @Test
+    void keysArePreloadedAtStartup() throws Exception {
+        JwtDecoder decoder = buildDecoder();
+
+        assertThat(fetches.get()).isEqualTo(1);
+
+        assertThat(decoder.decode(sign(servedKey.get())).getSubject()).isEqualTo("recruiter");
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    void keysAreRefreshedAheadOfTheirExpiration() throws Exception {
+        long loadedAt = System.currentTimeMillis();
+        JwtDecoder decoder = buildDecoder();
+        RSAKey rotatedKey = generateKey("key-2");
+        servedKey.set(rotatedKey);
+
+        // Within the refresh-ahead window: the cached keys are returned and fetched again in the background
+        long beforeExpiration = loadedAt + Duration.ofSeconds(CACHE_TTL_SECONDS - REFRESH_AHEAD_SECONDS / 2).toMillis();
+        JWKSet keys = getJWKSetSource().getJWKSet(JWKSetCacheRefreshEvaluator.noRefresh(), beforeExpiration, null);
+        assertThat(keys.getKeyByKeyId("key-1")).isNotNull();
+
+        // The background fetch has completed once its executor has terminated
+        ExecutorService refreshExecutor = ((RefreshAheadCachingJWKSetSource<SecurityContext>) getJWKSetSource()).getExecutorService();
+        refreshExecutor.shutdown();
+        assertThat(refreshExecutor.awaitTermination(BACKGROUND_FETCH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(fetches.get()).isEqualTo(2);
+
+        // The rotated key is already cached, the decoding does not fetch it
+        assertThat(decoder.decode(sign(rotatedKey)).getSubject()).isEqualTo("recruiter");
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    void lastKnownKeysAreUsedWhileTheEndpointFails() throws Exception {
+        buildDecoder();
+        failing.set(true);
+
+        long afterExpiration = System.currentTimeMillis() + Duration.ofSeconds(CACHE_TTL_SECONDS + 1).toMillis();
+        JWKSet keys = getJWKSetSource().getJWKSet(JWKSetCacheRefreshEvaluator.noRefresh(), afterExpiration, null);
+
+        assertThat(keys.getKeyByKeyId("key-1")).isNotNull();
+        assertThat(fetches.get()).isGreaterThan(1);
+    }
+
+    /**
+     * Build the decoder against the stub endpoint
+     *
+     * @return Decoder, its keys already preloaded
+     * @throws Exception If the decoder cannot be built
+     */
+    private JwtDecoder buildDecoder() throws Exception {
+        JwtDecoderConfig config = new JwtDecoderConfig();
+        ReflectionTestUtils.setField(config, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(config, "issuerUri", ISSUER);
+        ReflectionTestUtils.setField(config, "jwkSetUri", "http://localhost:" + jwksServer.getAddress().getPort() + "/certs");
+        ReflectionTestUtils.setField(config, "cacheTtlSeconds", CACHE_TTL_SECONDS);
+        ReflectionTestUtils.setField(config, "refreshAheadSeconds", REFRESH_AHEAD_SECONDS);
+        ReflectionTestUtils.setField(config, "refreshTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(config, "outageTolerantSeconds", 3600L);
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 500);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 500);
+        jwkSource = (JWKSetBasedJWKSource<SecurityContext>) config.buildJwkSource();
+        return config.buildDecoder(jwkSource);
+    }
+
+    /**
+     * @return Caching source of the decoder, queried at explicit times
+     */
+    private JWKSetSource<SecurityContext> getJWKSetSource() {
+        return jwkSource.getJWKSetSource();
+    }
+
+    /**
+     * Answer a fetch of the JWK set with the served key, or with 500 while the endpoint is failing
+     *
+     * @param exchange Request to the stub endpoint
+     * @throws IOException If the response cannot be written
+     */
+    private void serveKeys(HttpExchange exchange) throws IOException {
+        fetches.incrementAndGet();
+        if (failing.get()) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = new JWKSet(servedKey.get().toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static RSAKey generateKey(String keyId) throws JOSEException {
+        return new RSAKeyGenerator(2048).keyID(keyId).generate();
+    }
+
+    /**
+     * Sign an access token valid for a minute
+     *
+     * @param key Signing key
+     * @return Serialized token
+     * @throws JOSEException If the token cannot be signed
+     */
+    private static String sign(RSAKey key) throws JOSEException {
+        Instant now = Instant.now();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject("recruiter")
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plusSeconds(60)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+}
@@ -0,0 +1,157 @@
+package fr.polytech.config;
+
+import fr.polytech.annotation.RateLimited;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The limits applied by the interceptor to stub endpoints: a caller over its rate gets a 429, a request above the
+ * concurrency of its endpoint gets a 503, and the limits of a caller or an endpoint do not affect the others.
+ */
+class RateLimitInterceptorTest {
+
+    /**
+     * So slow that no token is added during a test
+     */
+    private static final double PERMITS_PER_SECOND = 0.001;
+
+    private static final int BURST = 2;
+
+    private RateLimitProperties properties;
+
+    private RateLimitInterceptor interceptor;
+
+    private HandlerMethod rated;
+
+    private HandlerMethod bulkheaded;
+
+    private HandlerMethod unlimited;
+
+    /**
+     * Stub controller
+     */
+    static class Endpoints {
+
+        @RateLimited("rated")
+        public void rated() {
+        }
+
+        @RateLimited("bulkheaded")
+        public void bulkheaded() {
+        }
+
+        public void unlimited() {
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        RateLimitProperties.Endpoint rate = new RateLimitProperties.Endpoint();
+        rate.setPermitsPerSecond(PERMITS_PER_SECOND);
+        rate.setBurst(BURST);
+        RateLimitProperties.Endpoint bulkhead = new RateLimitProperties.Endpoint();
+        bulkhead.setMaxConcurrent(1);
+
+        properties = new RateLimitProperties();
+        properties.setEndpoints(Map.of("rated", rate, "bulkheaded", bulkhead));
+
+        interceptor = new RateLimitInterceptor();
+        ReflectionTestUtils.setField(interceptor, "properties", properties);
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", new SimpleMeterRegistry());
+        interceptor.initLimiters();
+
+        Endpoints endpoints = new Endpoints();
+        rated = new HandlerMethod(endpoints, Endpoints.class.getMethod("rated"));
+        bulkheaded = new HandlerMethod(endpoints, Endpoints.class.getMethod("bulkheaded"));
+        unlimited = new HandlerMethod(endpoints, Endpoints.class.getMethod("unlimited"));
+    }
+
+    @Test
+    void answers429OnceACallerHasSpentItsBurst() {
+        for (int i = 0; i < BURST; i++) {
+            assertThat(handle(rated, "recruiter").getStatus()).isEqualTo(HttpStatus.OK.value());
+        }
+
+        MockHttpServletResponse rejected = handle(rated, "recruiter");
+
+        assertThat(rejected.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        // Time until the next token, rounded up to the second
+        assertThat(rejected.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo(String.valueOf((long) Math.ceil(1 / PERMITS_PER_SECOND)));
+        assertThat(handle(rated, "admin").getStatus()).isEqualTo(HttpStatus.OK.value());
+    }
+
+    @Test
+    void answers503WhileTheEndpointHandlesItsMaximumNumberOfRequests() {
+        MockHttpServletRequest running = request("recruiter");
+        assertThat(interceptor.preHandle(running, new MockHttpServletResponse(), bulkheaded)).isTrue();
+
+        MockHttpServletResponse rejected = handle(bulkheaded, "admin");
+        assertThat(rejected.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(rejected.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        assertThat(handle(rated, "admin").getStatus()).isEqualTo(HttpStatus.OK.value());
+
+        interceptor.afterCompletion(running, new MockHttpServletResponse(), bulkheaded, null);
+        assertThat(handle(bulkheaded, "admin").getStatus()).isEqualTo(HttpStatus.OK.value());
+    }
+
+    @Test
+    void admitsTheAsynchronousDispatchOfAnAdmittedRequest() {
+        MockHttpServletRequest running = request("recruiter");
+        assertThat(interceptor.preHandle(running, new MockHttpServletResponse(), bulkheaded)).isTrue();
+
+        MockHttpServletRequest asyncDispatch = request("recruiter");
+        asyncDispatch.setDispatcherType(DispatcherType.ASYNC);
+        assertThat(interceptor.preHandle(asyncDispatch, new MockHttpServletResponse(), bulkheaded)).isTrue();
+    }
+
+    @Test
+    void acceptsEveryRequestWhenDisabledOrNotLimited() {
+        properties.setEnabled(false);
+        for (int i = 0; i <= BURST; i++) {
+            assertThat(handle(rated, "recruiter").getStatus()).isEqualTo(HttpStatus.OK.value());
+        }
+
+        properties.setEnabled(true);
+        for (int i = 0; i <= BURST; i++) {
+            assertThat(handle(unlimited, "recruiter").getStatus()).isEqualTo(HttpStatus.OK.value());
+        }
+    }
+
+    /**
+     * Send a request through the interceptor and complete it right away if it is admitted
+     *
+     * @param handler Endpoint
+     * @param caller  Name of the authenticated caller
+     * @return Response, 200 if the request was admitted
+     */
+    private MockHttpServletResponse handle(HandlerMethod handler, String caller) {
+        MockHttpServletRequest request = request(caller);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        if (interceptor.preHandle(request, response, handler)) {
+            interceptor.afterCompletion(request, response, handler, null);
+        }
+        return response;
+    }
+
+    /**
+     * @param caller Name of the authenticated caller
+     * @return Request of the caller
+     */
+    private MockHttpServletRequest request(String caller) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/invoice/");
+        request.setUserPrincipal(() -> caller);
+        return request;
+    }
+}
@@ -0,0 +1,138 @@
+package fr.polytech.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.context.ConfigurationPropertiesAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Streamed responses written for longer than the asynchronous timeout of Tomcat, like the large exports and the slow
+ * PDF downloads, must be written completely. The 30 s timeout of Tomcat is shortened to 1 s, so that a response of
+ * 3 s outlives it.
+ */
+@SpringBootTest(
+        classes = WebConfigStreamingTest.StreamingTestConfig.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "CONFIG_SERVER_URI=http://localhost:8888",
+                "invoice.streaming.timeout-ms=10000"
+        })
+class WebConfigStreamingTest {
+
+    private static final long CONTAINER_ASYNC_TIMEOUT_MS = 1000;
+
+    private static final int CHUNKS = 3;
+
+    private static final Duration CHUNK_DELAY = Duration.ofSeconds(1);
+
+    private static final byte[] CHUNK = new byte[1024];
+
+    static {
+        Arrays.fill(CHUNK, (byte) 'x');
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void streamedResponseOutlivesTheContainerAsyncTimeout() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/slow"))
+                .timeout(Duration.ofSeconds(CHUNKS * 2L))
+                .build();
+
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).hasSize(CHUNKS * CHUNK.length);
+    }
+
+    @Configuration
+    @ImportAutoConfiguration({
+            ServletWebServerFactoryAutoConfiguration.class,
+            DispatcherServletAutoConfiguration.class,
+            WebMvcAutoConfiguration.class,
+            HttpMessageConvertersAutoConfiguration.class,
+            ConfigurationPropertiesAutoConfiguration.class
+    })
+    @Import({WebConfig.class, RateLimitInterceptor.class, RateLimitProperties.class, SlowStreamController.class})
+    static class StreamingTestConfig {
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        /**
+         * Stand-in for the 30 s asynchronous timeout of Tomcat, applied when the application does not set one
+         *
+         * @return Customizer of the Tomcat connector
+         */
+        @Bean
+        public WebServerFactoryCustomizer<TomcatServletWebServerFactory> shortAsyncTimeout() {
+            return factory -> factory.addConnectorCustomizers(connector -> connector.setAsyncTimeout(CONTAINER_ASYNC_TIMEOUT_MS));
+        }
+
+        @Bean
+        public ThreadPoolTaskExecutor streamingExecutor() {
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setCorePoolSize(2);
+            executor.setMaxPoolSize(2);
+            executor.setThreadNamePrefix("test-streaming-");
+            return executor;
+        }
+    }
+
+    @RestController
+    static class SlowStreamController {
+
+        /**
+         * Write a chunk every second, for longer than the asynchronous timeout of the container
+         *
+         * @return Streamed response
+         */
+        @GetMapping("/slow")
+        public ResponseEntity<StreamingResponseBody> slow() {
+            StreamingResponseBody body = out -> {
+                for (int i = 0; i < CHUNKS; i++) {
+                    out.write(CHUNK);
+                    out.flush();
+                    try {
+                        Thread.sleep(CHUNK_DELAY.toMillis());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            };
+            return ResponseEntity.ok(body);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package fr.polytech.restcontroller;
+
+import fr.polytech.exception.IdempotencyKeyReusedException;
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.service.InvoiceIdempotencyService;
+import fr.polytech.service.InvoiceService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Principal;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The responses of the controller, its services being mocked
+ */
+class InvoiceControllerTest {
+
+    private static final Principal PRINCIPAL = () -> "recruiter";
+
+    private InvoiceController invoiceController;
+
+    private InvoiceService invoiceService;
+
+    private InvoiceIdempotencyService invoiceIdempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        invoiceService = mock(InvoiceService.class);
+        invoiceIdempotencyService = mock(InvoiceIdempotencyService.class);
+
+        invoiceController = new InvoiceController();
+        ReflectionTestUtils.setField(invoiceController, "invoiceService", invoiceService);
+        ReflectionTestUtils.setField(invoiceController, "invoiceIdempotencyService", invoiceIdempotencyService);
+    }
+
+    @Test
+    void replaysTheInvoiceCreatedWithAnIdempotencyKey() {
+        Invoice invoice = new Invoice();
+        invoice.setId(UUID.randomUUID());
+        invoice.setStatus(InvoiceStatus.PENDING);
+        when(invoiceIdempotencyService.createInvoice(eq("recruiter"), eq("key"), any())).thenReturn(invoice);
+
+        ResponseEntity<Invoice> response = invoiceController.createInvoice(new InvoiceDataDTO(), true, "key", PRINCIPAL);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(response.getBody()).isSameAs(invoice);
+    }
+
+    @Test
+    void answers422WhenTheIdempotencyKeyIsReusedWithADifferentRequest() {
+        when(invoiceIdempotencyService.createInvoice(eq("recruiter"), eq("key"), any()))
+                .thenThrow(new IdempotencyKeyReusedException("reused"));
+
+        ResponseEntity<Invoice> response = invoiceController.createInvoice(new InvoiceDataDTO(), true, "key", PRINCIPAL);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+}
@@ -0,0 +1,162 @@
+package fr.polytech.service;
+
+import fr.polytech.exception.IdempotencyKeyReusedException;
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoiceIdempotencyKey;
+import fr.polytech.repository.InvoiceIdempotencyKeyRepository;
+import fr.polytech.repository.InvoiceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Date;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The idempotent creation against mocked repositories: a request sent again with its key gets the invoice created
+ * first, without creating another one, and a key sent again with a different request is rejected.
+ */
+class InvoiceIdempotencyServiceTest {
+
+    private static final String PRINCIPAL = "recruiter";
+
+    private static final String KEY = "8b6c3f0e-request";
+
+    private InvoiceIdempotencyService invoiceIdempotencyService;
+
+    private InvoiceService invoiceService;
+
+    private InvoiceRepository invoiceRepository;
+
+    private InvoiceIdempotencyKeyRepository invoiceIdempotencyKeyRepository;
+
+    @BeforeEach
+    void setUp() {
+        invoiceService = mock(InvoiceService.class);
+        invoiceRepository = mock(InvoiceRepository.class);
+        invoiceIdempotencyKeyRepository = mock(InvoiceIdempotencyKeyRepository.class);
+        when(invoiceIdempotencyKeyRepository.findById(anyString())).thenReturn(Optional.empty());
+
+        invoiceIdempotencyService = new InvoiceIdempotencyService();
+        ReflectionTestUtils.setField(invoiceIdempotencyService, "invoiceService", invoiceService);
+        ReflectionTestUtils.setField(invoiceIdempotencyService, "invoiceRepository", invoiceRepository);
+        ReflectionTestUtils.setField(invoiceIdempotencyService, "invoiceIdempotencyKeyRepository", invoiceIdempotencyKeyRepository);
+        ReflectionTestUtils.setField(invoiceIdempotencyService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(invoiceIdempotencyService, "cacheMaxSize", 100L);
+        ReflectionTestUtils.setField(invoiceIdempotencyService, "retentionHours", 24L);
+        invoiceIdempotencyService.initKeyCache();
+    }
+
+    @Test
+    void replaysTheInvoiceCreatedWithTheSameKey() {
+        Invoice invoice = invoice();
+        when(invoiceService.createInvoice(any(), eq(PRINCIPAL + ":" + KEY), anyString())).thenReturn(invoice);
+        when(invoiceRepository.findById(invoice.getId())).thenReturn(Optional.of(invoice));
+
+        Invoice created = invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Dupont"));
+        Invoice replayed = invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Dupont"));
+
+        assertThat(created).isSameAs(invoice);
+        assertThat(replayed).isSameAs(invoice);
+        verify(invoiceService, times(1)).createInvoice(any(), anyString(), anyString());
+    }
+
+    @Test
+    void scopesTheKeysByPrincipal() {
+        Invoice first = invoice();
+        Invoice second = invoice();
+        when(invoiceService.createInvoice(any(), eq(PRINCIPAL + ":" + KEY), anyString())).thenReturn(first);
+        when(invoiceService.createInvoice(any(), eq("other:" + KEY), anyString())).thenReturn(second);
+
+        assertThat(invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Dupont"))).isSameAs(first);
+        assertThat(invoiceIdempotencyService.createInvoice("other", KEY, request("Dupont"))).isSameAs(second);
+    }
+
+    @Test
+    void rejectsAKeyReusedWithADifferentRequest() {
+        Invoice invoice = invoice();
+        when(invoiceService.createInvoice(any(), anyString(), anyString())).thenReturn(invoice);
+        when(invoiceRepository.findById(invoice.getId())).thenReturn(Optional.of(invoice));
+        invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Dupont"));
+
+        assertThatThrownBy(() -> invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Durand")))
+                .isInstanceOf(IdempotencyKeyReusedException.class);
+        verify(invoiceService, times(1)).createInvoice(any(), anyString(), anyString());
+    }
+
+    @Test
+    void rejectsAKeyRecordedByAnotherInstanceWithADifferentRequest() {
+        Invoice invoice = invoice();
+        when(invoiceIdempotencyKeyRepository.findById(PRINCIPAL + ":" + KEY))
+                .thenReturn(Optional.of(new InvoiceIdempotencyKey(PRINCIPAL + ":" + KEY, invoice.getId(), "another-hash")));
+
+        assertThatThrownBy(() -> invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Dupont")))
+                .isInstanceOf(IdempotencyKeyReusedException.class);
+        verify(invoiceService, never()).createInvoice(any(), anyString(), anyString());
+    }
+
+    @Test
+    void returnsTheInvoiceOfAConcurrentRequestWhichRecordedTheKeyFirst() {
+        Invoice invoice = invoice();
+        when(invoiceService.createInvoice(any(), anyString(), anyString()))
+                .thenAnswer(invocation -> {
+                    // The other instance commits its key while this one creates the invoice
+                    when(invoiceIdempotencyKeyRepository.findById(PRINCIPAL + ":" + KEY)).thenReturn(Optional.of(
+                            new InvoiceIdempotencyKey(PRINCIPAL + ":" + KEY, invoice.getId(), invocation.getArgument(2))));
+                    throw new DataIntegrityViolationException("duplicate key");
+                });
+        when(invoiceRepository.findById(invoice.getId())).thenReturn(Optional.of(invoice));
+
+        assertThat(invoiceIdempotencyService.createInvoice(PRINCIPAL, KEY, request("Dupont"))).isSameAs(invoice);
+    }
+
+    @Test
+    void rejectsAnEmptyOrTooLongKey() {
+        assertThatThrownBy(() -> invoiceIdempotencyService.createInvoice(PRINCIPAL, " ", request("Dupont")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> invoiceIdempotencyService.createInvoice(PRINCIPAL,
+                "k".repeat(InvoiceIdempotencyService.MAX_KEY_LENGTH + 1), request("Dupont")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * @return Invoice with a random ID
+     */
+    private Invoice invoice() {
+        Invoice invoice = new Invoice();
+        invoice.setId(UUID.randomUUID());
+        return invoice;
+    }
+
+    /**
+     * Build a request to create an invoice
+     *
+     * @param surname Surname printed on the invoice
+     * @return Request
+     */
+    private InvoiceDataDTO request(String surname) {
+        InvoiceDataDTO invoiceData = new InvoiceDataDTO();
+        invoiceData.setCreationDate(Date.valueOf("2023-12-01"));
+        invoiceData.setName("Jean");
+        invoiceData.setSurname(surname);
+        invoiceData.setAddress("1 rue de la Paix, 75002 Paris");
+        invoiceData.setPlan("premium");
+        invoiceData.setPrice(99.99);
+        return invoiceData;
+    }
+}
@@ -0,0 +1,207 @@
+package fr.polytech.service;
+
+import fr.polytech.model.Invoice;
+import fr.polytech.model.InvoiceDataDTO;
+import fr.polytech.model.InvoiceOutbox;
+import fr.polytech.model.InvoiceStatus;
+import fr.polytech.model.StoredPdf;
+import fr.polytech.pdf.InvoicePdfRenderer;
+import fr.polytech.repository.InvoiceOutboxRepository;
+import fr.polytech.repository.InvoiceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The relay against mocked repositories and storage, its uploads run on the calling thread: only the uploads claimed
+ * are processed, a failed upload is retried right away then rescheduled with a growing backoff, and the invoice is
+ * marked as failed once the maximum number of attempts is reached.
+ */
+class InvoiceOutboxRelayTest {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final int IMMEDIATE_RETRIES = 3;
+
+    private static final long BACKOFF_INITIAL_MS = 10;
+
+    private static final long BACKOFF_MAX_MS = 100;
+
+    private InvoiceOutboxRelay relay;
+
+    private InvoiceRepository invoiceRepository;
+
+    private InvoiceOutboxRepository invoiceOutboxRepository;
+
+    private InvoiceStorage invoiceStorage;
+
+    private ThreadPoolTaskExecutor invoiceWorkerExecutor;
+
+    @BeforeEach
+    void setUp() {
+        invoiceRepository = mock(InvoiceRepository.class);
+        invoiceOutboxRepository = mock(InvoiceOutboxRepository.class);
+        invoiceStorage = mock(InvoiceStorage.class);
+        invoiceWorkerExecutor = mock(ThreadPoolTaskExecutor.class);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(invoiceWorkerExecutor).execute(any(Runnable.class));
+
+        relay = new InvoiceOutboxRelay();
+        ReflectionTestUtils.setField(relay, "invoiceRepository", invoiceRepository);
+        ReflectionTestUtils.setField(relay, "invoiceOutboxRepository", invoiceOutboxRepository);
+        ReflectionTestUtils.setField(relay, "invoicePdfRenderer", mock(InvoicePdfRenderer.class));
+        ReflectionTestUtils.setField(relay, "pdfBufferPool", new PdfBufferPool());
+        ReflectionTestUtils.setField(relay, "invoiceStorage", invoiceStorage);
+        ReflectionTestUtils.setField(relay, "invoiceWorkerExecutor", invoiceWorkerExecutor);
+        ReflectionTestUtils.setField(relay, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(relay, "invoiceMetrics", mock(InvoiceMetrics.class));
+        ReflectionTestUtils.setField(relay, "invoiceCache", mock(InvoiceCache.class));
+        ReflectionTestUtils.setField(relay, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(relay, "pollBatchSize", 100);
+        ReflectionTestUtils.setField(relay, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(relay, "immediateRetries", IMMEDIATE_RETRIES);
+        ReflectionTestUtils.setField(relay, "backoffInitialMs", BACKOFF_INITIAL_MS);
+        ReflectionTestUtils.setField(relay, "backoffMaxMs", BACKOFF_MAX_MS);
+        ReflectionTestUtils.setField(relay, "claimLeaseMs", 300000L);
+        relay.initRetryTemplate();
+    }
+
+    @Test
+    void relaysOnlyTheClaimedUploads() throws Exception {
+        InvoiceOutbox claimed = entry(0);
+        InvoiceOutbox claimedElsewhere = entry(0);
+        Invoice invoice = new Invoice();
+        invoice.setId(claimed.getId());
+        invoice.setStatus(InvoiceStatus.PENDING);
+        StoredPdf pdf = new StoredPdf(claimed.getObjectKey(), "hash", 42);
+
+        when(invoiceOutboxRepository.findDueIds(any(Timestamp.class), any(Pageable.class)))
+                .thenReturn(List.of(claimed.getId(), claimedElsewhere.getId()));
+        when(invoiceOutboxRepository.claim(eq(claimed.getId()), any(), any())).thenReturn(1);
+        when(invoiceOutboxRepository.claim(eq(claimedElsewhere.getId()), any(), any())).thenReturn(0);
+        when(invoiceOutboxRepository.findById(claimed.getId())).thenReturn(Optional.of(claimed));
+        when(invoiceStorage.storePdf(eq(claimed.getObjectKey()), any())).thenReturn(pdf);
+        when(invoiceStorage.isStored(pdf)).thenReturn(true);
+        when(invoiceRepository.findAllById(any())).thenReturn(List.of(invoice));
+
+        relay.relayDueUploads();
+
+        verify(invoiceWorkerExecutor, times(1)).execute(any(Runnable.class));
+        verify(invoiceOutboxRepository, never()).findById(claimedElsewhere.getId());
+        verify(invoiceOutboxRepository).deleteAllByIdInBatch(Set.of(claimed.getId()));
+        assertThat(invoice.getStatus()).isEqualTo(InvoiceStatus.COMPLETED);
+        assertThat(invoice.getPdfUrl()).isEqualTo(claimed.getObjectKey());
+        assertThat(invoice.getContentHash()).isEqualTo("hash");
+        assertThat(invoice.getContentSize()).isEqualTo(42L);
+    }
+
+    @Test
+    void releasesTheClaimAndStopsWhenThePoolIsFull() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        when(invoiceOutboxRepository.findDueIds(any(Timestamp.class), any(Pageable.class))).thenReturn(List.of(first, second));
+        when(invoiceOutboxRepository.claim(any(), any(), any())).thenReturn(1);
+        doThrow(new TaskRejectedException("full")).when(invoiceWorkerExecutor).execute(any(Runnable.class));
+
+        relay.relayDueUploads();
+
+        verify(invoiceOutboxRepository).release(List.of(first));
+        verify(invoiceOutboxRepository, never()).claim(eq(second), any(), any());
+    }
+
+    @Test
+    void retriesAFailedUploadThenReschedulesItWithABackoff() throws Exception {
+        InvoiceOutbox entry = entry(0);
+        when(invoiceOutboxRepository.findById(entry.getId())).thenReturn(Optional.of(entry));
+        when(invoiceStorage.storePdf(any(), any())).thenThrow(new IOException("storage down"));
+
+        long before = System.currentTimeMillis();
+        relay.dispatch(entry.getId());
+        long after = System.currentTimeMillis();
+
+        verify(invoiceStorage, times(IMMEDIATE_RETRIES)).storePdf(any(), any());
+        ArgumentCaptor<Timestamp> nextAttemptAt = ArgumentCaptor.forClass(Timestamp.class);
+        verify(invoiceOutboxRepository).reschedule(eq(entry.getId()), eq(1), nextAttemptAt.capture());
+        // Second attempt: twice the initial backoff
+        assertThat(nextAttemptAt.getValue().getTime()).isBetween(before + 2 * BACKOFF_INITIAL_MS, after + 2 * BACKOFF_INITIAL_MS);
+        verify(invoiceRepository, never()).updateStatus(any(), any());
+    }
+
+    @Test
+    void capsTheBackoff() throws Exception {
+        InvoiceOutbox entry = entry(MAX_ATTEMPTS - 2);
+        when(invoiceOutboxRepository.findById(entry.getId())).thenReturn(Optional.of(entry));
+        when(invoiceStorage.storePdf(any(), any())).thenThrow(new IOException("storage down"));
+
+        long before = System.currentTimeMillis();
+        relay.dispatch(entry.getId());
+        long after = System.currentTimeMillis();
+
+        ArgumentCaptor<Timestamp> nextAttemptAt = ArgumentCaptor.forClass(Timestamp.class);
+        verify(invoiceOutboxRepository).reschedule(eq(entry.getId()), eq(MAX_ATTEMPTS - 1), nextAttemptAt.capture());
+        assertThat(nextAttemptAt.getValue().getTime()).isBetween(before + BACKOFF_MAX_MS, after + BACKOFF_MAX_MS);
+    }
+
+    @Test
+    void marksTheInvoiceAsFailedAfterTheLastAttempt() throws Exception {
+        InvoiceOutbox entry = entry(MAX_ATTEMPTS - 1);
+        when(invoiceOutboxRepository.findById(entry.getId())).thenReturn(Optional.of(entry));
+        when(invoiceStorage.storePdf(any(), any())).thenThrow(new IOException("storage down"));
+
+        relay.dispatch(entry.getId());
+
+        verify(invoiceRepository).updateStatus(List.of(entry.getId()), InvoiceStatus.FAILED);
+        verify(invoiceOutboxRepository).deleteAllByIdInBatch(List.of(entry.getId()));
+        verify(invoiceOutboxRepository, never()).reschedule(any(), anyInt(), any());
+    }
+
+    /**
+     * Build a pending upload
+     *
+     * @param attempts Number of attempts already failed
+     * @return Pending upload
+     */
+    private InvoiceOutbox entry(int attempts) {
+        InvoiceDataDTO invoiceData = new InvoiceDataDTO();
+        invoiceData.setCreationDate(Date.valueOf("2023-12-01"));
+        invoiceData.setName("Jean");
+        invoiceData.setSurname("Dupont");
+        invoiceData.setAddress("1 rue de la Paix, 75002 Paris");
+        invoiceData.setPlan("premium");
+        invoiceData.setPrice(99.99);
+
+        UUID id = UUID.randomUUID();
+        InvoiceOutbox entry = new InvoiceOutbox(id, "invoices/" + id + ".pdf", invoiceData);
+        entry.setAttempts(attempts);
+        return entry;
+    }
+}
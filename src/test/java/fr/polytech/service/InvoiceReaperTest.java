@@ -0,0 +1,147 @@
+package fr.polytech.service;
+
+import fr.polytech.model.InvoiceTombstone;
+import fr.polytech.model.ObjectLocation;
+import fr.polytech.repository.InvoiceRepository;
+import fr.polytech.repository.InvoiceTombstoneRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The reaper against mocked repositories and Minio: the PDFs of the tombstones are removed by bucket, the tombstones
+ * of the PDFs which could not be removed are kept, and a shared PDF is only removed once no invoice references it.
+ */
+class InvoiceReaperTest {
+
+    private static final String BUCKET = "invoices";
+
+    private InvoiceReaper invoiceReaper;
+
+    private InvoiceTombstoneRepository invoiceTombstoneRepository;
+
+    private InvoiceRepository invoiceRepository;
+
+    private MinioService minioService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        invoiceTombstoneRepository = mock(InvoiceTombstoneRepository.class);
+        invoiceRepository = mock(InvoiceRepository.class);
+        minioService = mock(MinioService.class);
+        when(minioService.removeObjects(anyString(), anyList())).thenReturn(List.of());
+        when(invoiceRepository.tryLockExclusive(InvoiceStorage.CONTENT_LOCK_ID)).thenReturn(true);
+
+        InvoiceStorage invoiceStorage = mock(InvoiceStorage.class);
+        when(invoiceStorage.getInvoiceBucket()).thenReturn(BUCKET);
+        when(invoiceStorage.isContentKey(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).startsWith("content/"));
+
+        invoiceReaper = new InvoiceReaper();
+        ReflectionTestUtils.setField(invoiceReaper, "invoiceTombstoneRepository", invoiceTombstoneRepository);
+        ReflectionTestUtils.setField(invoiceReaper, "invoiceRepository", invoiceRepository);
+        ReflectionTestUtils.setField(invoiceReaper, "minioService", minioService);
+        ReflectionTestUtils.setField(invoiceReaper, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(invoiceReaper, "invoiceStorage", invoiceStorage);
+        ReflectionTestUtils.setField(invoiceReaper, "batchSize", 1000);
+    }
+
+    @Test
+    void dropsTheLegacyBucketOfADeletedInvoice() throws Exception {
+        InvoiceTombstone tombstone = tombstone("invoice-1", "invoice.pdf");
+        givenTombstones(tombstone);
+
+        invoiceReaper.reap();
+
+        verify(minioService).removeObjects("invoice-1", List.of("invoice.pdf"));
+        verify(minioService).removeBucket("invoice-1");
+        assertThat(reaped()).containsExactly(tombstone.getId());
+    }
+
+    @Test
+    void keepsTheTombstonesOfThePdfsNotRemoved() throws Exception {
+        InvoiceTombstone removed = tombstone(BUCKET, "2023/12/removed.pdf");
+        InvoiceTombstone failed = tombstone(BUCKET, "2023/12/failed.pdf");
+        givenTombstones(removed, failed);
+        when(minioService.removeObjects(BUCKET, List.of("2023/12/removed.pdf", "2023/12/failed.pdf")))
+                .thenReturn(List.of("2023/12/failed.pdf"));
+
+        invoiceReaper.reap();
+
+        assertThat(reaped()).containsExactly(removed.getId());
+        verify(minioService, never()).removeBucket(anyString());
+    }
+
+    @Test
+    void removesASharedPdfOnlyOnceNoInvoiceReferencesIt() throws Exception {
+        InvoiceTombstone referenced = tombstone(BUCKET, "content/referenced.pdf");
+        InvoiceTombstone unreferenced = tombstone(BUCKET, "content/unreferenced.pdf");
+        givenTombstones(referenced, unreferenced);
+        when(invoiceRepository.findReferencedPdfUrls(List.of("content/referenced.pdf", "content/unreferenced.pdf")))
+                .thenReturn(List.of("content/referenced.pdf"));
+
+        invoiceReaper.reap();
+
+        verify(minioService).removeObjects(BUCKET, List.of("content/unreferenced.pdf"));
+        assertThat(reaped()).containsExactlyInAnyOrder(referenced.getId(), unreferenced.getId());
+    }
+
+    @Test
+    void keepsTheSharedPdfsWhileUploadsHoldTheContentLock() throws Exception {
+        InvoiceTombstone shared = tombstone(BUCKET, "content/shared.pdf");
+        InvoiceTombstone legacy = tombstone("invoice-1", "invoice.pdf");
+        givenTombstones(shared, legacy);
+        when(invoiceRepository.tryLockExclusive(InvoiceStorage.CONTENT_LOCK_ID)).thenReturn(false);
+
+        invoiceReaper.reap();
+
+        verify(minioService, never()).removeObjects(eq(BUCKET), anyList());
+        assertThat(reaped()).containsExactly(legacy.getId());
+    }
+
+    /**
+     * Return tombstones as the oldest ones
+     *
+     * @param tombstones Tombstones
+     */
+    private void givenTombstones(InvoiceTombstone... tombstones) {
+        when(invoiceTombstoneRepository.findAllByOrderByDeletedAtAsc(any(Pageable.class))).thenReturn(List.of(tombstones));
+    }
+
+    /**
+     * @return IDs of the tombstones removed by the run
+     */
+    @SuppressWarnings("unchecked")
+    private List<UUID> reaped() {
+        ArgumentCaptor<List<UUID>> ids = ArgumentCaptor.forClass(List.class);
+        verify(invoiceTombstoneRepository).deleteAllByIdInBatch(ids.capture());
+        return ids.getValue();
+    }
+
+    /**
+     * Build the tombstone of a deleted invoice
+     *
+     * @param bucket    Bucket of its PDF
+     * @param objectKey Key of its PDF
+     * @return Tombstone
+     */
+    private InvoiceTombstone tombstone(String bucket, String objectKey) {
+        return new InvoiceTombstone(UUID.randomUUID(), new ObjectLocation(bucket, objectKey));
+    }
+}
@@ -0,0 +1,115 @@
+package fr.polytech.service;
+
+import fr.polytech.repository.InvoiceRepository;
+import io.minio.Result;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The reconciliation of a listed bucket with the keys of the invoices, read one per page so that the merge crosses
+ * several pages: the orphaned PDFs are removed unless they are too recent, and a shared PDF referenced meanwhile is kept.
+ */
+class InvoiceReconciliationJobTest {
+
+    private static final String BUCKET = "invoices";
+
+    private InvoiceReconciliationJob invoiceReconciliationJob;
+
+    private InvoiceRepository invoiceRepository;
+
+    private MinioService minioService;
+
+    private final List<Result<Item>> objects = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        invoiceRepository = mock(InvoiceRepository.class);
+        when(invoiceRepository.findSharedBucketKeysAfter("", 1)).thenReturn(List.of("2023/12/invoice.pdf"));
+        when(invoiceRepository.findSharedBucketKeysAfter("2023/12/invoice.pdf", 1)).thenReturn(List.of("content/invoice.pdf"));
+        when(invoiceRepository.findSharedBucketKeysAfter("content/invoice.pdf", 1)).thenReturn(List.of());
+        when(invoiceRepository.tryLockExclusive(InvoiceStorage.CONTENT_LOCK_ID)).thenReturn(true);
+
+        minioService = mock(MinioService.class);
+        when(minioService.listObjects(BUCKET)).thenReturn(objects);
+        when(minioService.removeObjects(anyString(), anyList())).thenReturn(List.of());
+
+        InvoiceStorage invoiceStorage = mock(InvoiceStorage.class);
+        when(invoiceStorage.getInvoiceBucket()).thenReturn(BUCKET);
+        when(invoiceStorage.isContentKey(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).startsWith("content/"));
+
+        invoiceReconciliationJob = new InvoiceReconciliationJob();
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "invoiceRepository", invoiceRepository);
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "minioService", minioService);
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "invoiceStorage", invoiceStorage);
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "pageSize", 1);
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "minAgeMinutes", 60L);
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "removeOrphans", true);
+
+        ZonedDateTime old = ZonedDateTime.now().minusDays(1);
+        givenObject("2023/12/invoice.pdf", old);
+        givenObject("2023/12/orphan.pdf", old);
+        givenObject("2023/12/recent.pdf", ZonedDateTime.now());
+        givenObject("content/invoice.pdf", old);
+        givenObject("content/orphan.pdf", old);
+        givenObject("content/referenced-meanwhile.pdf", old);
+    }
+
+    @Test
+    void removesTheOrphanedPdfs() throws Exception {
+        when(invoiceRepository.findReferencedPdfUrls(List.of("content/orphan.pdf", "content/referenced-meanwhile.pdf")))
+                .thenReturn(List.of("content/referenced-meanwhile.pdf"));
+
+        invoiceReconciliationJob.reconcile();
+
+        verify(minioService).removeObjects(BUCKET, List.of("2023/12/orphan.pdf"));
+        verify(minioService).removeObjects(BUCKET, List.of("content/orphan.pdf"));
+    }
+
+    @Test
+    void keepsTheSharedPdfsWhileUploadsHoldTheContentLock() throws Exception {
+        when(invoiceRepository.tryLockExclusive(InvoiceStorage.CONTENT_LOCK_ID)).thenReturn(false);
+
+        invoiceReconciliationJob.reconcile();
+
+        verify(minioService).removeObjects(BUCKET, List.of("2023/12/orphan.pdf"));
+        verify(minioService, never()).removeObjects(BUCKET, List.of("content/orphan.pdf"));
+    }
+
+    @Test
+    void onlyReportsTheOrphansByDefault() throws Exception {
+        ReflectionTestUtils.setField(invoiceReconciliationJob, "removeOrphans", false);
+
+        invoiceReconciliationJob.reconcile();
+
+        verify(minioService, never()).removeObjects(anyString(), anyList());
+    }
+
+    /**
+     * Add an object to the listing of the bucket, which must be done in byte order
+     *
+     * @param objectName   Name of the object
+     * @param lastModified Date of its upload
+     */
+    private void givenObject(String objectName, ZonedDateTime lastModified) {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(objectName);
+        when(item.lastModified()).thenReturn(lastModified);
+        objects.add(new Result<>(item));
+    }
+}
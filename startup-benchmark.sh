@@ -0,0 +1,42 @@
+#!/bin/bash
+# Time to first successful POST /api/v1/invoice/ of a fresh invoice-api container, over several runs.
+#
+# Usage: TOKEN=<access token> ./startup-benchmark.sh [runs]
+#   IMAGE       Image to start (default: invoice-api)
+#   ENV_FILE    Environment of the container: config server, JWT issuer, Minio (default: invoice-api.env)
+#   NETWORK     Docker network of the database, Minio and the issuer (default: bridge)
+#   JAVA_OPTS   JVM options, e.g. -Dspring.aot.enabled=true for an image built with the aot profile
+#   PROFILES    Spring profiles (default: fast-start)
+
+RUNS=${1:-5}
+IMAGE=${IMAGE:-invoice-api}
+ENV_FILE=${ENV_FILE:-invoice-api.env}
+NETWORK=${NETWORK:-bridge}
+PROFILES=${PROFILES:-fast-start}
+PORT=18080
+BODY='{"name":"Startup","surname":"Benchmark","address":"1 rue du Test","plan":"premium","price":1.0}'
+
+if [ -z "$TOKEN" ]; then
+  echo "TOKEN must contain an access token of a recruiter or an admin" >&2
+  exit 1
+fi
+
+for run in $(seq 1 "$RUNS"); do
+  start=$(date +%s%N)
+  container=$(docker run -d --rm --network "$NETWORK" --env-file "$ENV_FILE" -p $PORT:8080 \
+    -e SPRING_PROFILES_ACTIVE="$PROFILES" -e JAVA_OPTS="$JAVA_OPTS" "$IMAGE")
+
+  until status=$(curl -s -o /dev/null -w '%{http_code}' -X POST "http://localhost:$PORT/api/v1/invoice/" \
+      -H "Authorization: Bearer $TOKEN" -H 'Content-Type: application/json' -d "$BODY") \
+      && [ "${status:0:1}" = "2" ]; do
+    if [ -z "$(docker ps -q -f id="$container")" ]; then
+      echo "Run $run: the container stopped before serving a request" >&2
+      exit 1
+    fi
+    sleep 0.05
+  done
+
+  end=$(date +%s%N)
+  echo "Run $run: first successful POST after $(( (end - start) / 1000000 )) ms"
+  docker stop "$container" > /dev/null
+done